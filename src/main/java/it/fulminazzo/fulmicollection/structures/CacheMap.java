@@ -1,37 +1,208 @@
 package it.fulminazzo.fulmicollection.structures;
 
+import it.fulminazzo.fulmicollection.interfaces.functions.FunctionException;
+import it.fulminazzo.fulmicollection.interfaces.functions.SupplierException;
 import it.fulminazzo.fulmicollection.objects.FieldEquable;
-import it.fulminazzo.fulmicollection.structures.tuples.Tuple;
+import it.fulminazzo.fulmicollection.objects.IgnoreField;
+import it.fulminazzo.fulmicollection.structures.cache.BloomFilter;
+import it.fulminazzo.fulmicollection.structures.cache.CacheSnapshot;
+import it.fulminazzo.fulmicollection.structures.cache.CacheStats;
+import it.fulminazzo.fulmicollection.structures.cache.CacheSweeper;
+import it.fulminazzo.fulmicollection.structures.cache.ExpirationMode;
+import it.fulminazzo.fulmicollection.structures.cache.Expiry;
+import it.fulminazzo.fulmicollection.structures.cache.InvalidationBus;
+import it.fulminazzo.fulmicollection.structures.cache.MaintenanceMode;
+import it.fulminazzo.fulmicollection.structures.cache.RemovalCause;
+import it.fulminazzo.fulmicollection.structures.cache.RemovalListener;
+import it.fulminazzo.fulmicollection.structures.cache.RemovalNotifier;
+import it.fulminazzo.fulmicollection.structures.cache.SegmentStore;
+import it.fulminazzo.fulmicollection.structures.cache.SlabAllocator;
+import it.fulminazzo.fulmicollection.structures.cache.StatsCounter;
+import it.fulminazzo.fulmicollection.structures.cache.Ticker;
+import it.fulminazzo.fulmicollection.structures.cache.TimingWheel;
+import it.fulminazzo.fulmicollection.structures.cache.TinyLfuPolicy;
+import it.fulminazzo.fulmicollection.structures.cache.ValueStrength;
+import it.fulminazzo.fulmicollection.structures.cache.Weigher;
+import it.fulminazzo.fulmicollection.utils.SerializeUtils;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * An implementation of {@link Map} that temporarily stores values.
+ * By default, every key-value pair is scheduled in a {@link TimingWheel}, so that
+ * {@link #clearExpired()} only visits the pairs that are actually expired.
+ * Alternatively, with {@link ExpirationMode#SAMPLING}, every operation checks a small
+ * sample of pairs, bounding the work done by any single caller.
+ * <p>
+ * Only one caller at a time is elected to remove the expired pairs once the period has elapsed.
+ * Pairs are split among {@link Builder#concurrencyLevel(int)} wheels by the hash of their keys:
+ * the sweep advances one wheel at a time, so writers of the other wheels are never blocked by it.
+ * <p>
+ * If a background {@link MaintenanceMode} is specified, expired pairs are removed every period
+ * by a thread shared among all the maps, so callers never pay for the cleanup.
+ * <p>
+ * Regardless of the mode, expired pairs are never returned:
+ * every read checks the pair timestamp and removes it if necessary.
+ * The same applies to {@link #keySet()}, {@link #values()} and {@link #entrySet()}:
+ * they are live views of the map that skip expired pairs while iterating.
+ * <p>
+ * Time is read from a {@link Ticker}: by default, a monotonic clock cached every millisecond.
+ * <p>
+ * By default, the expiration time is counted from the last write.
+ * With {@link Builder#expireAfterAccess()}, it is counted from the last read or write instead.
+ * Every pair can have its own time to live, either passed to {@link #put(Object, Object, long)}
+ * or computed by an {@link Expiry}: since pairs are scheduled in a {@link TimingWheel},
+ * different times to live do not slow down the removal of expired pairs.
+ * <p>
+ * The {@link ConcurrentMap} operations, like {@link #putIfAbsent(Object, Object)} or
+ * {@link #computeIfAbsent(Object, Function)}, are atomic and treat expired pairs as absent.
+ * Their functions are applied while holding the lock of the pair, so they should be short
+ * and must not update this map.
+ * <p>
+ * Custom settings can be specified using {@link #builder()}.
+ * <p>
+ * Optionally, the number of pairs can be bounded by a {@link #getMaximumSize()}:
+ * when exceeded, the pairs to evict are chosen by a {@link TinyLfuPolicy}.
+ * Alternatively, with {@link Builder#maximumWeight(long)}, the total weight of the pairs
+ * computed by a {@link Weigher} is bounded instead.
+ * <p>
+ * With {@link Builder#valueStrength(ValueStrength)}, values can be referenced softly or weakly,
+ * so that the garbage collector can reclaim them.
+ * Reclaimed values are treated as expired and removed during maintenance.
+ * <p>
+ * With {@link Builder#offHeap()}, values are serialized into off-heap memory managed by a {@link SlabAllocator},
+ * so that only keys and small handles are kept on the heap.
+ * Values must be {@link java.io.Serializable} and every read returns a new deserialized copy.
+ * The memory of removed or overwritten values is recycled.
+ * <p>
+ * With {@link Builder#diskOverflow(Path)}, pairs evicted to respect the maximum size or weight are
+ * spilled to a {@link SegmentStore} rather than dropped.
+ * {@link #get(Object)}, {@link #getAll(Collection)}, {@link #containsKey(Object)} and {@link #remove(Object)}
+ * fall through to the disk when a key is not in memory, and found pairs are moved back in memory.
+ * {@link #size()} and the views only reflect the pairs in memory.
+ * <p>
+ * The pairs in memory can be saved with {@link #snapshotTo(Path)} and loaded back,
+ * even by another process, with {@link #restoreFrom(Path)}.
+ * <p>
+ * If {@link Builder#recordStats()} is specified, hits, misses, writes, expirations, evictions and sweeps
+ * are counted and can be read with {@link #stats()}. Otherwise, no statistic is recorded at all.
+ * <p>
+ * A {@link RemovalListener} can be specified with {@link Builder#removalListener(RemovalListener)}
+ * to be notified every time a pair leaves the map.
+ * Notifications are delivered asynchronously, in batches, on the {@link Builder#executor(Executor)}.
+ * <p>
+ * With {@link Builder#invalidationBus(InvalidationBus, String)}, every key written or removed
+ * is published to the maps of other processes, which remove it in turn.
+ * Clearing the map clears the maps of the other processes as well.
+ * Invalidations received from other processes are not published again,
+ * and neither are the values loaded by a {@link LoadingCacheMap}.
  *
  * @param <K> the type parameter
  * @param <V> the type parameter
  */
-public class CacheMap<K, V> extends FieldEquable implements Map<K, V> {
-    private static final long DEFAULT_PERIOD = 3600 * 1000L;
-    private static final long DEFAULT_EXPIRE_TIME = 60 * 1000L;
+public class CacheMap<K, V> extends FieldEquable implements ConcurrentMap<K, V> {
+    static final long DEFAULT_PERIOD = 3600 * 1000L;
+    static final long DEFAULT_EXPIRE_TIME = 60 * 1000L;
+    private static final int DEFAULT_SAMPLE_SIZE = 20;
+    private static final double DEFAULT_SAMPLE_THRESHOLD = 0.25;
+    private static final int MAXIMUM_SAMPLE_ROUNDS = 16;
+    private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 23;
+    private static final int RESTORE_BATCH_SIZE = 1024;
+    private static final long DEFAULT_NEGATIVE_MAXIMUM_SIZE = 10_000;
+    /**
+     * The value of {@link #getMaximumSize()} when the map has no size limit.
+     */
+    public static final long UNBOUNDED = -1;
 
-    private final Map<K, Tuple<V, Long>> internal;
+    private final Map<K, TimedEntry<K, V>> internal;
+    @IgnoreField
+    private final @NotNull Ticker ticker;
+    @IgnoreField
+    private final TimingWheel<TimedEntry<K, V>> @Nullable [] wheels;
     @Getter
     private final long expirationTime;
     @Getter
     private final long period;
-    private long lastCheck;
+    @Getter
+    private final long maximumSize;
+    @Getter
+    private final long maximumWeight;
+    @IgnoreField
+    private final @Nullable Weigher<K, V> weigher;
+    @Getter
+    private final boolean expireAfterAccess;
+    @IgnoreField
+    private final @Nullable Expiry<K, V> expiry;
+    @Getter
+    private final @NotNull ValueStrength valueStrength;
+    @IgnoreField
+    private final @Nullable ReferenceQueue<V> referenceQueue;
+    @IgnoreField
+    private final @Nullable SlabAllocator allocator;
+    @IgnoreField
+    private final @Nullable SegmentStore<K> disk;
+    @IgnoreField
+    private final @Nullable TinyLfuPolicy<K> policy;
+    @Getter
+    private final @NotNull ExpirationMode expirationMode;
+    @Getter
+    private final @NotNull MaintenanceMode maintenanceMode;
+    @Getter
+    private final int sampleSize;
+    @Getter
+    private final double sampleThreshold;
+    @IgnoreField
+    private final @Nullable StatsCounter stats;
+    @IgnoreField
+    private final @Nullable RemovalNotifier<K, V> notifier;
+    @IgnoreField
+    private final @Nullable InvalidationBus invalidationBus;
+    @IgnoreField
+    private final @Nullable String invalidationChannel;
+    @IgnoreField
+    private final ReentrantLock sampleLock;
+    @IgnoreField
+    private Iterator<TimedEntry<K, V>> sampleCursor;
+    @IgnoreField
+    private Set<K> keySet;
+    @IgnoreField
+    private Collection<V> values;
+    @IgnoreField
+    private Set<Entry<K, V>> entrySet;
+    @IgnoreField
+    private final AtomicLong lastCheck;
+    @IgnoreField
+    private final long sweepPeriod;
+    @IgnoreField
+    private final AtomicInteger sweepCursor;
 
     /**
      * Instantiates a new Cache map.
      */
     public CacheMap() {
-        this(null);
+        this((Map<K, V>) null);
     }
 
     /**
@@ -80,10 +251,119 @@ public class CacheMap<K, V> extends FieldEquable implements Map<K, V> {
      * @param expirationTime the time in milliseconds after which key-value pairs are considered expired
      */
     public CacheMap(final @Nullable Map<K, V> map, final long period, final long expirationTime) {
-        this.internal = new ConcurrentHashMap<>();
+        this(map, period, expirationTime, UNBOUNDED);
+    }
+
+    /**
+     * Instantiates a new Cache map.
+     *
+     * @param period         the period in milliseconds to check for expired values
+     * @param expirationTime the time in milliseconds after which key-value pairs are considered expired
+     * @param maximumSize    the maximum number of key-value pairs (or {@link #UNBOUNDED})
+     */
+    public CacheMap(final long period, final long expirationTime, final long maximumSize) {
+        this(null, period, expirationTime, maximumSize);
+    }
+
+    /**
+     * Instantiates a new Cache map.
+     *
+     * @param map            the map to copy from
+     * @param period         the period in milliseconds to check for expired values
+     * @param expirationTime the time in milliseconds after which key-value pairs are considered expired
+     * @param maximumSize    the maximum number of key-value pairs (or {@link #UNBOUNDED})
+     */
+    public CacheMap(final @Nullable Map<K, V> map, final long period, final long expirationTime, final long maximumSize) {
+        this(builder().period(period).expirationTime(expirationTime).maximumSize(maximumSize));
         if (map != null) putAll(map);
-        this.period = period;
-        this.expirationTime = expirationTime;
+    }
+
+    /**
+     * Instantiates a new Cache map.
+     *
+     * @param builder the builder to take the settings from
+     */
+    @SuppressWarnings("unchecked")
+    protected CacheMap(final @NotNull Builder builder) {
+        if (builder.maximumSize < 0 && builder.maximumSize != UNBOUNDED)
+            throw new IllegalArgumentException("Maximum size cannot be negative");
+        if (builder.maximumWeight < 0 && builder.maximumWeight != UNBOUNDED)
+            throw new IllegalArgumentException("Maximum weight cannot be negative");
+        if (builder.maximumWeight != UNBOUNDED && builder.maximumSize != UNBOUNDED)
+            throw new IllegalArgumentException("Maximum size and maximum weight cannot be both specified");
+        if ((builder.maximumWeight == UNBOUNDED) != (builder.weigher == null))
+            throw new IllegalArgumentException("Maximum weight and weigher must be specified together");
+        if (builder.diskDirectory != null && builder.maximumSize == UNBOUNDED && builder.maximumWeight == UNBOUNDED)
+            throw new IllegalArgumentException("Disk overflow requires a maximum size or weight");
+        if (builder.slabSize > 0 && builder.valueStrength != ValueStrength.STRONG)
+            throw new IllegalArgumentException("Off-heap values cannot be referenced softly or weakly");
+        if (builder.concurrencyLevel <= 0)
+            throw new IllegalArgumentException("Concurrency level must be positive");
+        if (builder.sampleSize <= 0)
+            throw new IllegalArgumentException("Sample size must be positive");
+        if (builder.sampleThreshold < 0 || builder.sampleThreshold > 1)
+            throw new IllegalArgumentException("Sample threshold must be between 0 and 1");
+        if (builder.maintenanceMode.isBackground() && builder.period <= 0)
+            throw new IllegalArgumentException("Period must be positive for background maintenance");
+        if (builder.maintenanceMode == MaintenanceMode.VIRTUAL_THREAD && !CacheSweeper.isVirtualThreadSupported())
+            throw new UnsupportedOperationException("Virtual threads are not supported by the current Java version");
+        this.internal = new ConcurrentHashMap<>();
+        this.ticker = builder.ticker;
+        this.period = builder.period;
+        this.expirationTime = builder.expirationTime;
+        this.maximumSize = builder.maximumSize;
+        this.expireAfterAccess = builder.expireAfterAccess;
+        this.expiry = (Expiry<K, V>) builder.expiry;
+        this.valueStrength = builder.valueStrength;
+        this.referenceQueue = this.valueStrength == ValueStrength.STRONG ? null : new ReferenceQueue<>();
+        this.allocator = builder.slabSize > 0 ? new SlabAllocator(builder.slabSize) : null;
+        this.disk = builder.diskDirectory == null ? null :
+                new SegmentStore<>(builder.diskDirectory, builder.segmentSize, builder.executor);
+        this.maximumWeight = builder.maximumWeight;
+        this.weigher = (Weigher<K, V>) builder.weigher;
+        if (this.maximumWeight != UNBOUNDED) this.policy = new TinyLfuPolicy<>(this.maximumWeight, true);
+        else if (this.maximumSize != UNBOUNDED) this.policy = new TinyLfuPolicy<>(this.maximumSize);
+        else this.policy = null;
+        this.expirationMode = builder.expirationMode;
+        if (this.expirationMode == ExpirationMode.TIMING_WHEEL) {
+            this.wheels = (TimingWheel<TimedEntry<K, V>>[]) new TimingWheel<?>[tableSizeFor(builder.concurrencyLevel)];
+            for (int i = 0; i < this.wheels.length; i++) this.wheels[i] = new TimingWheel<>(now());
+        } else this.wheels = null;
+        // Every wheel is still swept once per period, but not more than once per millisecond
+        this.sweepPeriod = this.wheels == null || this.period <= 0 ? this.period :
+                Math.max(1, this.period / this.wheels.length);
+        this.sweepCursor = new AtomicInteger();
+        this.lastCheck = new AtomicLong(now());
+        this.sampleSize = builder.sampleSize;
+        this.sampleThreshold = builder.sampleThreshold;
+        this.stats = builder.recordStats ? new StatsCounter() : null;
+        this.notifier = builder.removalListener == null ? null :
+                new RemovalNotifier<>((RemovalListener<K, V>) builder.removalListener, builder.executor);
+        this.sampleLock = new ReentrantLock();
+        this.invalidationBus = builder.invalidationBus;
+        this.invalidationChannel = builder.invalidationChannel;
+        this.maintenanceMode = builder.maintenanceMode;
+    }
+
+    /**
+     * Subscribes to the {@link #invalidationBus} and registers to the {@link CacheSweeper}, if required.
+     * Called by the {@link Builder} once the map is fully constructed,
+     * so that other threads never reach a map whose fields are not set yet.
+     */
+    void start() {
+        if (this.invalidationBus != null)
+            new Subscription(this, this.invalidationBus, Objects.requireNonNull(this.invalidationChannel)).subscribe();
+        if (this.maintenanceMode.isBackground())
+            CacheSweeper.register(this, CacheMap::clearExpired, this.period, this.maintenanceMode);
+    }
+
+    /**
+     * Creates a new {@link Builder} to specify custom settings.
+     *
+     * @return the builder
+     */
+    public static @NotNull Builder builder() {
+        return new Builder();
     }
 
     /**
@@ -91,12 +371,215 @@ public class CacheMap<K, V> extends FieldEquable implements Map<K, V> {
      */
     public void clearExpired() {
         final long now = now();
-        for (K key : this.internal.keySet()) {
-            Tuple<V, Long> value = this.internal.get(key);
-            if (now - value.getValue() >= this.expirationTime)
-                this.internal.remove(key, value);
+        this.lastCheck.set(now);
+        clearExpired(now, true);
+    }
+
+    /**
+     * Removes the expired key-value pairs.
+     *
+     * @param now the current time
+     * @param all if false, only the next wheel is advanced
+     */
+    private void clearExpired(final long now, final boolean all) {
+        final long start = this.stats == null ? 0 : System.nanoTime();
+        drainReferences(now);
+        if (this.wheels == null) this.internal.values().forEach(e -> removeIfExpired(e, now));
+        else if (all) for (TimingWheel<TimedEntry<K, V>> wheel : this.wheels) advance(wheel, now);
+        else advance(this.wheels[this.sweepCursor.getAndIncrement() & (this.wheels.length - 1)], now);
+        if (this.disk != null) this.disk.scheduleCompaction(now);
+        if (this.stats != null) this.stats.recordSweep(System.nanoTime() - start);
+    }
+
+    private void advance(final @NotNull TimingWheel<TimedEntry<K, V>> wheel, final long now) {
+        final List<TimedEntry<K, V>> expired = new LinkedList<>();
+        synchronized (wheel) {
+            wheel.advance(now, expired::add);
+        }
+        for (TimedEntry<K, V> e : expired)
+            // The entry might have been read in the meantime
+            if (!removeIfExpired(e, now) && !e.isRetired()) schedule(e);
+    }
+
+    /**
+     * Checks a sample of {@link #sampleSize} key-value pairs and removes the expired ones.
+     * If the ratio of expired pairs exceeds {@link #sampleThreshold}, the process is repeated.
+     * The samples are taken from a cursor that cycles through the whole map,
+     * so that every pair is eventually checked.
+     * If another thread is already sampling, this method returns immediately.
+     */
+    protected void sampleExpired() {
+        if (!this.sampleLock.tryLock()) return;
+        final long start = this.stats == null ? 0 : System.nanoTime();
+        try {
+            final long now = now();
+            drainReferences(now);
+            for (int round = 0; round < MAXIMUM_SAMPLE_ROUNDS; round++) {
+                int sampled = 0;
+                int expired = 0;
+                boolean restarted = false;
+                while (sampled < this.sampleSize) {
+                    if (this.sampleCursor == null || !this.sampleCursor.hasNext()) {
+                        if (restarted) break;
+                        this.sampleCursor = this.internal.values().iterator();
+                        restarted = true;
+                        continue;
+                    }
+                    sampled++;
+                    if (removeIfExpired(this.sampleCursor.next(), now)) expired++;
+                }
+                if (sampled == 0 || expired <= sampled * this.sampleThreshold) break;
+            }
+        } finally {
+            this.sampleLock.unlock();
+            if (this.stats != null) this.stats.recordSweep(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Removes the entries whose values have been reclaimed by the garbage collector.
+     *
+     * @param now the current time
+     */
+    @SuppressWarnings("unchecked")
+    private void drainReferences(final long now) {
+        if (this.referenceQueue == null) return;
+        Reference<? extends V> reference;
+        while ((reference = this.referenceQueue.poll()) != null)
+            // If the value has been overwritten, the entry is not collected
+            removeIfExpired(((ValueReference<K, V>) reference).getEntry(), now);
+    }
+
+    private boolean removeIfExpired(final @NotNull TimedEntry<K, V> entry, final long now) {
+        if (!entry.retireIfExpired(now)) return false;
+        unlink(entry, true);
+        final boolean collected = entry.isCollected();
+        if (this.stats != null) {
+            if (collected) this.stats.recordEviction();
+            else this.stats.recordExpiration();
+        }
+        notifyRemoval(entry, collected ? RemovalCause.COLLECTED : RemovalCause.EXPIRED);
+        return true;
+    }
+
+    private void notifyRemoval(final @NotNull TimedEntry<K, V> entry, final @NotNull RemovalCause cause) {
+        if (this.notifier != null) this.notifier.notify(entry.key, entry.getValue(), cause);
+    }
+
+    /**
+     * Notifies the removal of a retired entry, either as expired or with the given cause.
+     *
+     * @param entry the entry
+     * @param cause the cause if the entry has not expired
+     * @param now   the current time
+     */
+    private void notifyRemoval(final @NotNull TimedEntry<K, V> entry, final @NotNull RemovalCause cause, final long now) {
+        notifyRemoval(entry, entry.isExpired(now) ? RemovalCause.EXPIRED : cause);
+    }
+
+    /**
+     * Removes a retired entry from the map and from the expiration and eviction structures.
+     *
+     * @param entry        the entry
+     * @param removePolicy if false, the entry is not removed from the {@link #policy}
+     */
+    private void unlink(final @NotNull TimedEntry<K, V> entry, final boolean removePolicy) {
+        this.internal.remove(entry.key, entry);
+        deschedule(entry);
+        // A concurrent write might have already mapped the key to a new entry tracked by the policy
+        if (removePolicy && this.policy != null) this.policy.remove(entry.key, k -> !this.internal.containsKey(k));
+        final Object value = entry.value;
+        if (value instanceof OffHeapValue) {
+            // The value is still needed by the removal listener
+            if (this.notifier != null) entry.value = entry.getValue();
+            release(value);
+        }
+    }
+
+    /**
+     * Converts the given value to the object held by the given entry.
+     *
+     * @param entry the entry
+     * @param value the value
+     * @param data  the serialized value, if stored off-heap
+     * @return the value itself, a {@link ValueReference} or an {@link OffHeapValue}
+     */
+    private @Nullable Object store(final @NotNull TimedEntry<K, V> entry, final @Nullable V value,
+                                   final byte @Nullable [] data) {
+        if (value == null) return null;
+        if (this.allocator != null && data != null) return new OffHeapValue<V>(this.allocator.allocate(data));
+        switch (this.valueStrength) {
+            case SOFT:
+                return new SoftValue<>(entry, value, this.referenceQueue);
+            case WEAK:
+                return new WeakValue<>(entry, value, this.referenceQueue);
+            default:
+                return value;
         }
-        this.lastCheck = now;
+    }
+
+    /**
+     * Frees the off-heap memory of the given object, if any.
+     *
+     * @param value the object held by an entry
+     */
+    private void release(final @Nullable Object value) {
+        if (this.allocator != null && value instanceof OffHeapValue)
+            this.allocator.free(((OffHeapValue<?>) value).handle);
+    }
+
+    private byte @Nullable [] serialize(final @Nullable V value) {
+        if (this.allocator == null || value == null) return null;
+        final byte[] data = SerializeUtils.serialize(value);
+        if (data == null) throw new IllegalArgumentException("Could not serialize value: " + value);
+        return data;
+    }
+
+    private static long expirationTimeOf(final long writeTime, final long ttl) {
+        return ttl > Long.MAX_VALUE - writeTime ? Long.MAX_VALUE : writeTime + ttl;
+    }
+
+    /**
+     * Gets the weight of the given key-value pair.
+     *
+     * @param k the key
+     * @param v the value
+     * @return the {@link Weigher} result, if specified, otherwise 1
+     */
+    private long weightOf(final K k, final V v) {
+        if (this.weigher == null) return 1;
+        final long weight = this.weigher.weigh(k, v);
+        if (weight < 0) throw new IllegalArgumentException("Weight cannot be negative");
+        return weight;
+    }
+
+    /**
+     * Gets the time to live of the given key-value pair.
+     *
+     * @param k the key
+     * @param v the value
+     * @return the {@link Expiry} result, if specified, otherwise {@link #expirationTime}
+     */
+    private long ttlOf(final K k, final V v) {
+        if (this.expiry == null) return this.expirationTime;
+        final long ttl = this.expiry.expireAfter(k, v);
+        if (ttl < 0) throw new IllegalArgumentException("Time to live cannot be negative");
+        return ttl;
+    }
+
+    /**
+     * Gets the entry associated with the given key, if it has not expired yet.
+     * Otherwise, the entry is removed.
+     *
+     * @param key the key
+     * @param now the current time
+     * @return the entry (or null)
+     */
+    private @Nullable TimedEntry<K, V> getAlive(final @Nullable Object key, final long now) {
+        if (key == null) return null;
+        TimedEntry<K, V> e = this.internal.get(key);
+        if (e == null || removeIfExpired(e, now)) return null;
+        return e;
     }
 
     /**
@@ -105,20 +588,231 @@ public class CacheMap<K, V> extends FieldEquable implements Map<K, V> {
      * @return true if it has
      */
     protected boolean shouldCheck() {
-        return now() - this.lastCheck >= this.period;
+        return now() - this.lastCheck.get() >= this.period;
     }
 
+    /**
+     * Removes the expired key-value pairs of the next wheel, if its share of the {@link #period} has elapsed.
+     * Among concurrent callers, only the one that updates {@link #lastCheck} first
+     * removes them, while the others return immediately.
+     */
     private void checkIfNecessary() {
-        if (shouldCheck()) clearExpired();
+        if (this.maintenanceMode.isBackground()) return;
+        if (this.referenceQueue != null) drainReferences(now());
+        if (this.expirationMode == ExpirationMode.SAMPLING) sampleExpired();
+        else {
+            final long last = this.lastCheck.get();
+            final long now = now();
+            if (now - last >= this.sweepPeriod && this.lastCheck.compareAndSet(last, now)) clearExpired(now, false);
+        }
+    }
+
+    private void schedule(final @NotNull TimedEntry<K, V> entry) {
+        if (this.wheels == null) return;
+        final TimingWheel<TimedEntry<K, V>> wheel = wheelOf(entry);
+        synchronized (wheel) {
+            wheel.reschedule(entry);
+        }
+    }
+
+    private void deschedule(final @NotNull TimedEntry<K, V> entry) {
+        if (this.wheels == null) return;
+        final TimingWheel<TimedEntry<K, V>> wheel = wheelOf(entry);
+        synchronized (wheel) {
+            wheel.deschedule(entry);
+        }
+    }
+
+    private @NotNull TimingWheel<TimedEntry<K, V>> wheelOf(final @NotNull TimedEntry<K, V> entry) {
+        final TimingWheel<TimedEntry<K, V>>[] wheels = Objects.requireNonNull(this.wheels);
+        int hash = entry.key.hashCode();
+        hash ^= hash >>> 16;
+        return wheels[hash & (wheels.length - 1)];
+    }
+
+    private static int tableSizeFor(final int size) {
+        return size <= 1 ? 1 : Math.min(Integer.highestOneBit(size - 1) << 1, 1 << 16);
+    }
+
+    private void evict(final @NotNull List<K> keys) {
+        for (K key : keys) {
+            TimedEntry<K, V> e = this.internal.get(key);
+            if (e == null) continue;
+            // Serialized before retiring, as writers wait for retired entries to be unlinked
+            final int version = e.version;
+            byte[] data = spillable(e);
+            if (!e.retire()) continue;
+            if (e.version != version) data = spillable(e);
+            // Spilled before unlinking, so that concurrent readers always find the pair
+            if (data != null) this.disk.put(e.key, data, e.expirationTime);
+            unlink(e, false);
+            if (data != null) continue;
+            if (this.stats != null) this.stats.recordEviction();
+            notifyRemoval(e, RemovalCause.SIZE);
+        }
+    }
+
+    /**
+     * Serializes the value of the given entry to write it to the {@link #disk}, if possible.
+     *
+     * @param entry the entry
+     * @return the serialized value (null if it should not be written)
+     */
+    private byte @Nullable [] spillable(final @NotNull TimedEntry<K, V> entry) {
+        if (this.disk == null || entry.isExpired(now())) return null;
+        try {
+            return serializedValueOf(entry);
+        } catch (RuntimeException e) {
+            // Values that cannot be serialized are simply evicted
+            return null;
+        }
+    }
+
+    /**
+     * Serializes the value of the given entry.
+     * If it is stored off-heap, it is copied as it is.
+     *
+     * @param entry the entry
+     * @return the serialized value (null if the value is null or could not be serialized)
+     */
+    private byte @Nullable [] serializedValueOf(final @NotNull TimedEntry<K, V> entry) {
+        final Object value = entry.value;
+        if (value instanceof OffHeapValue) return ((OffHeapValue<?>) value).handle.read();
+        final V v = entry.getValue();
+        return v == null ? null : SerializeUtils.serialize(v);
+    }
+
+    /**
+     * Moves the value of the given key from the {@link #disk} back in memory.
+     * The disk does not keep the time to live, so it is computed again.
+     * If the key has been written in the meantime, the newer value is kept and returned.
+     *
+     * @param key    the key
+     * @param now    the current time
+     * @param access if true, the value is being read, so its expiration is extended with {@link Builder#expireAfterAccess()}
+     * @return the value (null if not present on disk)
+     */
+    @SuppressWarnings("unchecked")
+    private @Nullable V promote(final @Nullable Object key, final long now, final boolean access) {
+        if (this.disk == null || key == null) return null;
+        long expirationTime = this.disk.getExpirationTime(key);
+        final byte[] data = this.disk.remove(key, now);
+        if (data == null) return null;
+        final V value = SerializeUtils.deserialize(data);
+        if (value == null) return null;
+        final long ttl = ttlOf((K) key, value);
+        if (access && this.expireAfterAccess) expirationTime = Math.max(expirationTime, expirationTimeOf(now, ttl));
+        final V current = insert((K) key, value, now, now, ttl, expirationTime);
+        return current == null ? value : current;
     }
 
     /**
-     * Returns the current time in milliseconds.
+     * Returns the current time in milliseconds, as read from the {@link Ticker}.
      *
      * @return the time
      */
     protected long now() {
-        return new Date().getTime();
+        return this.ticker.read();
+    }
+
+    /**
+     * Saves the key-value pairs in memory that have not expired to the given file,
+     * in the format of {@link CacheSnapshot}.
+     * Keys and values must be {@link java.io.Serializable}.
+     * The file is replaced only once the snapshot has been completely written.
+     *
+     * @param path the file
+     * @return the number of saved pairs
+     * @throws IOException if the file cannot be written
+     */
+    public int snapshotTo(final @NotNull Path path) throws IOException {
+        final long now = now();
+        final long wallNow = System.currentTimeMillis();
+        int saved = 0;
+        try (CacheSnapshot.Writer writer = new CacheSnapshot.Writer(path)) {
+            for (TimedEntry<K, V> e : this.internal.values()) {
+                final long writeTime = e.writeTime;
+                final long expirationTime = e.expirationTime;
+                if (expirationTime <= now) continue;
+                final byte[] value = serializedValueOf(e);
+                final byte[] key = SerializeUtils.serialize(e.key);
+                if (key == null || value == null) continue;
+                // Times are converted to the wall clock, since the ticker is only meaningful in this process
+                writer.write(key, value, wallNow - (now - writeTime), e.ttl, expirationTimeOf(wallNow, expirationTime - now));
+                saved++;
+            }
+            writer.commit();
+        }
+        return saved;
+    }
+
+    /**
+     * Loads the key-value pairs saved with {@link #snapshotTo(Path)}, keeping their original write time and time to live.
+     * Pairs that have expired in the meantime are skipped, while the others are deserialized and stored in parallel.
+     * Pairs that cannot be deserialized, or whose key is already present, are skipped as well.
+     *
+     * @param path the file
+     * @return the number of loaded pairs
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public int restoreFrom(final @NotNull Path path) throws IOException {
+        final long now = now();
+        final long wallNow = System.currentTimeMillis();
+        final AtomicInteger restored = new AtomicInteger();
+        final List<CacheSnapshot.Record> batch = new ArrayList<>(RESTORE_BATCH_SIZE);
+        try (CacheSnapshot.Reader reader = new CacheSnapshot.Reader(path)) {
+            CacheSnapshot.Record record;
+            while ((record = reader.next()) != null) {
+                if (record.getExpirationTime() <= wallNow) continue;
+                batch.add(record);
+                if (batch.size() == RESTORE_BATCH_SIZE) {
+                    restore(batch, now, wallNow, restored);
+                    batch.clear();
+                }
+            }
+        }
+        restore(batch, now, wallNow, restored);
+        return restored.get();
+    }
+
+    private void restore(final @NotNull List<CacheSnapshot.Record> records, final long now, final long wallNow,
+                         final @NotNull AtomicInteger restored) {
+        records.parallelStream().forEach(r -> {
+            final K key;
+            final V value;
+            try {
+                key = SerializeUtils.deserialize(r.getKey());
+                value = SerializeUtils.deserialize(r.getValue());
+            } catch (RuntimeException e) {
+                // Classes might have changed since the snapshot was saved
+                return;
+            }
+            if (key == null || value == null) return;
+            if (this.disk != null && this.disk.contains(key, now)) return;
+            final long writeTime = now - (wallNow - r.getWriteTime());
+            final long expirationTime = expirationTimeOf(now, r.getExpirationTime() - wallNow);
+            // Pairs written since the map was created are newer than the snapshot
+            if (insert(key, value, now, writeTime, r.getTtl(), expirationTime) == null) restored.incrementAndGet();
+        });
+    }
+
+    /**
+     * Gets a snapshot of the statistics recorded so far.
+     * If {@link Builder#recordStats()} was not specified, every statistic is zero.
+     *
+     * @return the statistics
+     */
+    public @NotNull CacheStats stats() {
+        return this.stats == null ? CacheStats.empty() : this.stats.snapshot();
+    }
+
+    /**
+     * Gets the counter of the statistics.
+     *
+     * @return the counter (null if statistics are not recorded)
+     */
+    @Nullable StatsCounter statsCounter() {
+        return this.stats;
     }
 
     @Override
@@ -136,68 +830,1398 @@ public class CacheMap<K, V> extends FieldEquable implements Map<K, V> {
     @Override
     public boolean containsKey(Object o) {
         checkIfNecessary();
-        return this.internal.containsKey(o);
+        final long now = now();
+        if (getAlive(o, now) != null) return true;
+        return this.disk != null && o != null && this.disk.contains(o, now);
     }
 
     @Override
     public boolean containsValue(Object o) {
         checkIfNecessary();
-        return this.internal.values().stream().anyMatch(t -> Objects.equals(t.getValue(), o));
+        final long now = now();
+        return this.internal.values().stream()
+                .anyMatch(e -> !e.isExpired(now) && Objects.equals(e.getValue(), o));
     }
 
     @Override
     public V get(Object o) {
         checkIfNecessary();
-        Tuple<V, Long> t = this.internal.get(o);
-        return t == null ? null : t.getKey();
+        final long now = now();
+        TimedEntry<K, V> e = getAlive(o, now);
+        V value = e == null ? promote(o, now, true) : read(e, now);
+        if (this.stats != null) {
+            if (e == null && value == null) this.stats.recordMisses(1);
+            else this.stats.recordHits(1);
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value associated with the given key, without recording the read.
+     *
+     * @param o the key
+     * @return the value (null if not present or expired)
+     */
+    @Nullable V peek(final @Nullable Object o) {
+        final long now = now();
+        TimedEntry<K, V> e = getAlive(o, now);
+        return e == null ? promote(o, now, false) : e.getValue();
+    }
+
+    private V read(final @NotNull TimedEntry<K, V> entry, final long now) {
+        if (this.policy != null) this.policy.recordAccess(entry.key);
+        if (this.expireAfterAccess) entry.extend(now);
+        final V value = entry.getValue();
+        afterRead(entry.key, entry.writeTime);
+        return value;
+    }
+
+    /**
+     * Executed every time {@link #get(Object)} finds a value.
+     *
+     * @param key       the key
+     * @param writeTime the time in milliseconds at which the value was written
+     */
+    protected void afterRead(final @NotNull K key, final long writeTime) {
+
+    }
+
+    /**
+     * Executed every time a value is written.
+     *
+     * @param key the key
+     */
+    protected void afterWrite(final @NotNull K key) {
+
+    }
+
+    /**
+     * Executed every time an invalidation of the given key is received from the {@link InvalidationBus}.
+     *
+     * @param key the key
+     */
+    protected void afterInvalidation(final @NotNull K key) {
+
     }
 
     @Nullable
     @Override
     public V put(K k, V v) {
-        Tuple<V, Long> t = this.internal.put(k, new Tuple<>(v, now()));
-        return t == null ? null : t.getKey();
+        final V previous = putLocally(k, v);
+        publish(k);
+        return previous;
+    }
+
+    /**
+     * Associates the given value to the given key, without publishing its invalidation.
+     *
+     * @param k the key
+     * @param v the value
+     * @return the previous value (if not expired)
+     */
+    @Nullable V putLocally(final K k, final V v) {
+        return write(k, v, now(), ttlOf(k, v));
+    }
+
+    /**
+     * Associates the given value to the given key, for the given time.
+     * The {@link Expiry} and the {@link #expirationTime} are ignored.
+     *
+     * @param k   the key
+     * @param v   the value
+     * @param ttl the time in milliseconds after which the pair is considered expired
+     * @return the previous value (if not expired)
+     */
+    public @Nullable V put(final K k, final V v, final long ttl) {
+        if (ttl < 0) throw new IllegalArgumentException("Time to live cannot be negative");
+        final V previous = write(k, v, now(), ttl);
+        publish(k);
+        return previous;
+    }
+
+    /**
+     * Associates the given value to the given key, using the given time as write time.
+     *
+     * @param k   the key
+     * @param v   the value
+     * @param now the write time
+     * @param ttl the time to live
+     * @return the previous value (if not expired)
+     */
+    private V write(final K k, final V v, final long now, final long ttl) {
+        final long expiration = expirationTimeOf(now, ttl);
+        final long weight = weightOf(k, v);
+        final byte[] data = serialize(v);
+        for (; ; ) {
+            TimedEntry<K, V> e = this.internal.get(k);
+            V previous = null;
+            V replaced = null;
+            boolean expired = false;
+            if (e == null) {
+                e = new TimedEntry<>(k, now, ttl, expiration);
+                e.value = store(e, v, data);
+                if (this.internal.putIfAbsent(k, e) != null) {
+                    release(e.value);
+                    continue;
+                }
+            } else {
+                final Object old;
+                synchronized (e) {
+                    // The entry is being removed, wait for it
+                    if (e.retired) continue;
+                    replaced = e.getValue();
+                    expired = e.isExpired(now);
+                    if (!expired) previous = replaced;
+                    old = e.set(store(e, v, data), now, ttl, expiration);
+                }
+                release(old);
+            }
+            schedule(e);
+            if (this.disk != null) this.disk.invalidate(k);
+            if (this.stats != null) this.stats.recordPut();
+            if (this.notifier != null && replaced != null)
+                this.notifier.notify(k, replaced, expired ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+            afterWrite(k);
+            if (this.policy != null) evict(this.policy.recordWrite(k, weight));
+            return previous;
+        }
+    }
+
+    /**
+     * Associates the given value to the given key with the given times, only if the key is absent or expired,
+     * so that pairs moved back in memory never overwrite newer writes.
+     *
+     * @param k              the key
+     * @param v              the value
+     * @param now            the current time
+     * @param writeTime      the write time
+     * @param ttl            the time to live
+     * @param expirationTime the expiration time
+     * @return the current value (null if the given one was associated)
+     */
+    private @Nullable V insert(final K k, final V v, final long now, final long writeTime,
+                               final long ttl, final long expirationTime) {
+        final long weight = weightOf(k, v);
+        final byte[] data = serialize(v);
+        for (; ; ) {
+            TimedEntry<K, V> e = this.internal.get(k);
+            V replaced = null;
+            if (e == null) {
+                e = new TimedEntry<>(k, writeTime, ttl, expirationTime);
+                e.value = store(e, v, data);
+                if (this.internal.putIfAbsent(k, e) != null) {
+                    release(e.value);
+                    continue;
+                }
+            } else {
+                final Object old;
+                synchronized (e) {
+                    // The entry is being removed, wait for it
+                    if (e.retired) continue;
+                    if (!e.isExpired(now)) return e.getValue();
+                    replaced = e.getValue();
+                    old = e.set(store(e, v, data), writeTime, ttl, expirationTime);
+                }
+                release(old);
+            }
+            schedule(e);
+            if (this.stats != null) this.stats.recordPut();
+            if (this.notifier != null && replaced != null) this.notifier.notify(k, replaced, RemovalCause.EXPIRED);
+            afterWrite(k);
+            if (this.policy != null) evict(this.policy.recordWrite(k, weight));
+            return null;
+        }
     }
 
     @Override
     public V remove(Object o) {
         checkIfNecessary();
-        Tuple<V, Long> t = this.internal.remove(o);
-        return t == null ? null : t.getKey();
+        if (o == null) return null;
+        final AtomicReference<V> value = new AtomicReference<>();
+        removeLocally(o, value);
+        publish(o);
+        return value.get();
     }
 
-    @Override
-    public void putAll(@NotNull Map<? extends K, ? extends V> map) {
-        map.forEach(this::put);
+    /**
+     * Removes the given key from memory and from the disk, without publishing its invalidation.
+     *
+     * @param o       the key
+     * @param removed if not null, set to the removed value (if not expired)
+     * @return true if a non-expired entry was removed, even if its value was cleared
+     */
+    private boolean removeLocally(final @NotNull Object o, final @Nullable AtomicReference<V> removed) {
+        for (; ; ) {
+            TimedEntry<K, V> e = this.internal.get(o);
+            if (e == null) return removeFromDisk(o, removed);
+            if (!e.retire()) continue;
+            final long now = now();
+            final boolean alive = !e.isExpired(now);
+            if (removed != null && alive) removed.set(e.getValue());
+            unlink(e, true);
+            notifyRemoval(e, RemovalCause.EXPLICIT, now);
+            return alive;
+        }
+    }
+
+    /**
+     * Removes the given key after receiving its invalidation from the {@link InvalidationBus}.
+     *
+     * @param key the key
+     */
+    @SuppressWarnings("unchecked")
+    private void invalidate(final @NotNull Object key) {
+        removeLocally(key, null);
+        afterInvalidation((K) key);
+    }
+
+    private boolean removeFromDisk(final @NotNull Object key, final @Nullable AtomicReference<V> removed) {
+        if (this.disk == null) return false;
+        final byte[] data = this.disk.remove(key, now());
+        if (data == null) return false;
+        if (removed != null) removed.set(SerializeUtils.deserialize(data));
+        return true;
     }
 
     @Override
-    public void clear() {
-        this.internal.clear();
+    public @Nullable V putIfAbsent(final @NotNull K key, final @NotNull V value) {
+        Objects.requireNonNull(value);
+        return update(key, (k, v) -> v == null ? value : v, true);
     }
 
-    @NotNull
     @Override
-    public Set<K> keySet() {
+    public boolean remove(final @NotNull Object key, final @Nullable Object value) {
         checkIfNecessary();
-        return this.internal.keySet();
+        return value != null && removeEntry(Objects.requireNonNull(key), value);
     }
 
-    @NotNull
     @Override
-    public Collection<V> values() {
-        checkIfNecessary();
-        return this.internal.values().stream()
-                .map(Tuple::getKey)
-                .collect(Collectors.toList());
+    public boolean replace(final @NotNull K key, final @NotNull V oldValue, final @NotNull V newValue) {
+        Objects.requireNonNull(oldValue);
+        Objects.requireNonNull(newValue);
+        return oldValue.equals(update(key, (k, v) -> oldValue.equals(v) ? newValue : v, true));
+    }
+
+    /**
+     * Replaces the value associated with the given key only if it is currently the given one,
+     * without publishing its invalidation.
+     *
+     * @param key      the key
+     * @param oldValue the expected value
+     * @param newValue the new value
+     * @return true if the value was replaced
+     */
+    boolean replaceLocally(final @NotNull K key, final @NotNull V oldValue, final @NotNull V newValue) {
+        return oldValue.equals(update(key, (k, v) -> oldValue.equals(v) ? newValue : v, true, false));
+    }
+
+    /**
+     * Associates the given value to the given key only if it is absent or expired,
+     * without publishing its invalidation.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the current value (null if the given one was associated)
+     */
+    @Nullable V putIfAbsentLocally(final @NotNull K key, final @NotNull V value) {
+        return update(key, (k, v) -> v == null ? value : v, true, false);
     }
 
-    @NotNull
     @Override
-    public Set<Entry<K, V>> entrySet() {
-        checkIfNecessary();
-        return this.internal.entrySet().stream()
-                .map(e -> new AbstractMap.SimpleEntry<>(e.getKey(), e.getValue().getKey()))
-                .collect(Collectors.toSet());
+    public @Nullable V replace(final @NotNull K key, final @NotNull V value) {
+        Objects.requireNonNull(value);
+        return update(key, (k, v) -> v == null ? null : value, true);
+    }
+
+    @Override
+    public @Nullable V computeIfAbsent(final @NotNull K key,
+                                       final @NotNull Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        return update(key, (k, v) -> v == null ? mappingFunction.apply(k) : v, false);
+    }
+
+    @Override
+    public @Nullable V computeIfPresent(final @NotNull K key,
+                                        final @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return update(key, (k, v) -> v == null ? null : remappingFunction.apply(k, v), false);
+    }
+
+    @Override
+    public @Nullable V compute(final @NotNull K key,
+                               final @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        return update(key, remappingFunction, false);
+    }
+
+    @Override
+    public @Nullable V merge(final @NotNull K key, final @NotNull V value,
+                             final @NotNull BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        return update(key, (k, v) -> v == null ? value : remappingFunction.apply(v, value), false);
+    }
+
+    /**
+     * Atomically replaces the value associated with the given key with the result of the given function.
+     * The function receives the current value (null if absent or expired) and is applied while holding
+     * the lock of the pair: if the key is absent, concurrent callers wait for it rather than applying their own.
+     * If the function returns null, the pair is removed.
+     * If it returns the current value itself, the pair is left untouched.
+     *
+     * @param k              the key
+     * @param function       the function
+     * @param returnPrevious if true, the current value is returned rather than the new one
+     * @return the current value or the new one
+     */
+    private @Nullable V update(final @NotNull K k, final @NotNull BiFunction<? super K, ? super V, ? extends V> function,
+                               final boolean returnPrevious) {
+        return update(k, function, returnPrevious, true);
+    }
+
+    /**
+     * Atomically replaces the value associated with the given key with the result of the given function.
+     *
+     * @param k              the key
+     * @param function       the function
+     * @param returnPrevious if true, the current value is returned rather than the new one
+     * @param publish        if false, the invalidation is not published on the {@link InvalidationBus}
+     * @return the current value or the new one
+     * @see #update(Object, BiFunction, boolean)
+     */
+    private @Nullable V update(final @NotNull K k, final @NotNull BiFunction<? super K, ? super V, ? extends V> function,
+                               final boolean returnPrevious, final boolean publish) {
+        Objects.requireNonNull(k);
+        checkIfNecessary();
+        final long now = now();
+        if (this.disk != null && !this.internal.containsKey(k)) promote(k, now, false);
+        for (; ; ) {
+            TimedEntry<K, V> e = this.internal.get(k);
+            final boolean absent = e == null;
+            // Expired until the function has been applied, so that readers wait for it
+            if (absent) e = new TimedEntry<>(k, now, 0, Long.MIN_VALUE);
+            final V replaced;
+            final V previous;
+            final V value;
+            final boolean expired;
+            long weight = 0;
+            Object old = null;
+            synchronized (e) {
+                if (absent) {
+                    if (this.internal.putIfAbsent(k, e) != null) continue;
+                } else if (e.retired) continue;
+                replaced = absent ? null : e.getValue();
+                expired = !absent && e.isExpired(now);
+                previous = expired ? null : replaced;
+                try {
+                    value = function.apply(k, previous);
+                    if (value == null) e.retired = true;
+                    else if (value != previous) {
+                        weight = weightOf(k, value);
+                        final long ttl = ttlOf(k, value);
+                        final byte[] data = serialize(value);
+                        old = e.set(store(e, value, data), now, ttl, expirationTimeOf(now, ttl));
+                    }
+                } catch (RuntimeException | Error ex) {
+                    if (absent) {
+                        e.retired = true;
+                        this.internal.remove(k, e);
+                    }
+                    throw ex;
+                }
+            }
+            if (value == null) {
+                unlink(e, !absent);
+                if (!absent) {
+                    if (expired && this.stats != null) this.stats.recordExpiration();
+                    notifyRemoval(e, RemovalCause.EXPLICIT, now);
+                    if (publish) publish(k);
+                }
+            } else if (value != previous) {
+                if (publish) publish(k);
+                release(old);
+                schedule(e);
+                if (this.disk != null) this.disk.invalidate(k);
+                if (this.stats != null) this.stats.recordPut();
+                if (this.notifier != null && replaced != null)
+                    this.notifier.notify(k, replaced, expired ? RemovalCause.EXPIRED : RemovalCause.REPLACED);
+                afterWrite(k);
+                if (this.policy != null) evict(this.policy.recordWrite(k, weight));
+            }
+            return returnPrevious ? previous : value;
+        }
+    }
+
+    @Override
+    public void putAll(@NotNull Map<? extends K, ? extends V> map) {
+        putAllLocally(map);
+        if (this.invalidationBus != null) map.keySet().forEach(this::publish);
+    }
+
+    /**
+     * Copies all the given key-value pairs, without publishing their invalidations.
+     *
+     * @param map the pairs
+     */
+    void putAllLocally(final @NotNull Map<? extends K, ? extends V> map) {
+        final long now = now();
+        map.forEach((k, v) -> write(k, v, now, ttlOf(k, v)));
+    }
+
+    /**
+     * Publishes the invalidation of the given key on the {@link InvalidationBus}, if any.
+     *
+     * @param key the key
+     */
+    private void publish(final @NotNull Object key) {
+        if (this.invalidationBus != null) this.invalidationBus.publish(Objects.requireNonNull(this.invalidationChannel), key);
+    }
+
+    /**
+     * Gets the values associated with the given keys.
+     * Keys that are not present (or expired) are not included in the result.
+     *
+     * @param keys the keys
+     * @return a map containing the found key-value pairs
+     */
+    public @NotNull Map<K, V> getAll(final @NotNull Collection<? extends K> keys) {
+        checkIfNecessary();
+        final long now = now();
+        final Map<K, V> result = new LinkedHashMap<>();
+        int misses = 0;
+        for (K key : keys) {
+            TimedEntry<K, V> e = getAlive(key, now);
+            V value = e == null ? promote(key, now, true) : read(e, now);
+            if (value != null || e != null) result.put(key, value);
+            else misses++;
+        }
+        if (this.stats != null) {
+            this.stats.recordHits(keys.size() - misses);
+            this.stats.recordMisses(misses);
+        }
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        clearLocally();
+        if (this.invalidationBus != null) this.invalidationBus.publishClear(Objects.requireNonNull(this.invalidationChannel));
+    }
+
+    /**
+     * Removes every key-value pair from memory and from the disk, without publishing the invalidation.
+     */
+    private void clearLocally() {
+        final long now = now();
+        for (TimedEntry<K, V> e : this.internal.values())
+            if (e.retire()) {
+                unlink(e, true);
+                notifyRemoval(e, RemovalCause.EXPLICIT, now);
+            }
+        if (this.disk != null) this.disk.clear();
+    }
+
+    @NotNull
+    @Override
+    public Set<K> keySet() {
+        checkIfNecessary();
+        if (this.keySet == null) this.keySet = new KeySet();
+        return this.keySet;
+    }
+
+    @NotNull
+    @Override
+    public Collection<V> values() {
+        checkIfNecessary();
+        if (this.values == null) this.values = new Values();
+        return this.values;
+    }
+
+    @NotNull
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        checkIfNecessary();
+        if (this.entrySet == null) this.entrySet = new EntrySet();
+        return this.entrySet;
+    }
+
+    /**
+     * Compares the non-expired key-value pairs of this map with the given map,
+     * as specified by {@link Map#equals(Object)}.
+     *
+     * @param o the object
+     * @return true if the pairs are equal
+     */
+    @Override
+    public boolean equals(final Object o) {
+        if (o == this) return true;
+        if (!(o instanceof Map)) return false;
+        // Other cache maps are copied as well, so that comparing them does not record any read
+        final Map<?, ?> other = o instanceof CacheMap ? ((CacheMap<?, ?>) o).live() : (Map<?, ?>) o;
+        return live().equals(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return live().hashCode();
+    }
+
+    @Override
+    public @NotNull String toString() {
+        return live().toString();
+    }
+
+    /**
+     * Copies the non-expired key-value pairs in memory.
+     *
+     * @return the pairs
+     */
+    private @NotNull Map<K, V> live() {
+        final Map<K, V> live = new LinkedHashMap<>();
+        for (Entry<K, V> entry : entrySet())
+            // Softly or weakly referenced values might have been collected
+            if (entry.getValue() != null) live.put(entry.getKey(), entry.getValue());
+        return live;
+    }
+
+    /**
+     * Removes the given key only if it is currently mapped to the given value.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return true if the key was removed
+     */
+    private boolean removeEntry(final @Nullable Object key, final @Nullable Object value) {
+        if (key == null) return false;
+        final long now = now();
+        for (; ; ) {
+            TimedEntry<K, V> e = this.internal.get(key);
+            if (e == null) return false;
+            synchronized (e) {
+                if (e.retired) continue;
+                if (e.isExpired(now) || !Objects.equals(e.getValue(), value)) return false;
+                e.retired = true;
+            }
+            unlink(e, true);
+            notifyRemoval(e, RemovalCause.EXPLICIT);
+            publish(key);
+            return true;
+        }
+    }
+
+    private final class KeySet extends AbstractSet<K> {
+
+        @Override
+        public @NotNull Iterator<K> iterator() {
+            return new CacheIterator<K>() {
+                @Override
+                K map(final @NotNull TimedEntry<K, V> entry) {
+                    return entry.key;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return CacheMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            checkIfNecessary();
+            if (o == null || !removeLocally(o, null)) return false;
+            publish(o);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            CacheMap.this.clear();
+        }
+    }
+
+    private final class Values extends AbstractCollection<V> {
+
+        @Override
+        public @NotNull Iterator<V> iterator() {
+            return new CacheIterator<V>() {
+                @Override
+                V map(final @NotNull TimedEntry<K, V> entry) {
+                    return entry.getValue();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return CacheMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+            CacheMap.this.clear();
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<K, V>> {
+
+        @Override
+        public @NotNull Iterator<Entry<K, V>> iterator() {
+            return new CacheIterator<Entry<K, V>>() {
+                @Override
+                Entry<K, V> map(final @NotNull TimedEntry<K, V> entry) {
+                    return new WriteThroughEntry(entry.key, entry.getValue());
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return CacheMap.this.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return !iterator().hasNext();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            checkIfNecessary();
+            V value = peek(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry<?, ?> entry = (Entry<?, ?>) o;
+            return removeEntry(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            CacheMap.this.clear();
+        }
+    }
+
+    /**
+     * An iterator over the non-expired entries of the map.
+     * Expired entries met during the iteration are removed.
+     *
+     * @param <T> the type of the returned elements
+     */
+    private abstract class CacheIterator<T> implements Iterator<T> {
+        private final Iterator<TimedEntry<K, V>> iterator = internal.values().iterator();
+        private final long now = now();
+        private TimedEntry<K, V> next;
+        private TimedEntry<K, V> last;
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null && this.iterator.hasNext()) {
+                TimedEntry<K, V> e = this.iterator.next();
+                if (!removeIfExpired(e, this.now)) this.next = e;
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            this.last = this.next;
+            this.next = null;
+            return map(this.last);
+        }
+
+        @Override
+        public void remove() {
+            if (this.last == null) throw new IllegalStateException();
+            if (this.last.retire()) {
+                unlink(this.last, true);
+                notifyRemoval(this.last, RemovalCause.EXPLICIT, this.now);
+                publish(this.last.key);
+            }
+            this.last = null;
+        }
+
+        /**
+         * Converts the given entry to the element returned by this iterator.
+         *
+         * @param entry the entry
+         * @return the element
+         */
+        abstract T map(final @NotNull TimedEntry<K, V> entry);
+    }
+
+    /**
+     * An entry returned by {@link #entrySet()} that writes through to the map on {@link #setValue(Object)}.
+     */
+    private final class WriteThroughEntry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        WriteThroughEntry(final K key, final V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(final V value) {
+            super.setValue(value);
+            return put(getKey(), value);
+        }
+    }
+
+    /**
+     * A builder to create {@link CacheMap}s with custom settings.
+     */
+    public static class Builder {
+        private long period = DEFAULT_PERIOD;
+        private long expirationTime = DEFAULT_EXPIRE_TIME;
+        private long maximumSize = UNBOUNDED;
+        private long maximumWeight = UNBOUNDED;
+        private @Nullable Weigher<?, ?> weigher;
+        private @NotNull ExpirationMode expirationMode = ExpirationMode.TIMING_WHEEL;
+        private int sampleSize = DEFAULT_SAMPLE_SIZE;
+        private double sampleThreshold = DEFAULT_SAMPLE_THRESHOLD;
+        private @NotNull MaintenanceMode maintenanceMode = MaintenanceMode.CALLER;
+        private @NotNull Ticker ticker = Ticker.cached();
+        private int concurrencyLevel = Runtime.getRuntime().availableProcessors();
+        private boolean recordStats;
+        private boolean expireAfterAccess;
+        private @Nullable RemovalListener<?, ?> removalListener;
+        private @Nullable Expiry<?, ?> expiry;
+        private @NotNull ValueStrength valueStrength = ValueStrength.STRONG;
+        private int slabSize;
+        private @Nullable Path diskDirectory;
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        long refreshAfter;
+        long negativeExpirationTime;
+        long negativeMaximumSize = DEFAULT_NEGATIVE_MAXIMUM_SIZE;
+        @Nullable SupplierException<? extends Collection<?>, Exception> knownKeys;
+        long knownKeysPeriod;
+        private @Nullable InvalidationBus invalidationBus;
+        private @Nullable String invalidationChannel;
+        @NotNull Executor executor = ForkJoinPool.commonPool();
+
+        Builder() {
+
+        }
+
+        /**
+         * Sets the period in milliseconds to check for expired values.
+         *
+         * @param period the period
+         * @return this builder
+         */
+        public @NotNull Builder period(final long period) {
+            this.period = period;
+            return this;
+        }
+
+        /**
+         * Sets the time in milliseconds after which key-value pairs are considered expired.
+         *
+         * @param expirationTime the expiration time
+         * @return this builder
+         */
+        public @NotNull Builder expirationTime(final long expirationTime) {
+            this.expirationTime = expirationTime;
+            return this;
+        }
+
+        /**
+         * Counts the {@link #expirationTime(long)} from the last read or write of a key-value pair,
+         * rather than from the last write only.
+         *
+         * @return this builder
+         */
+        public @NotNull Builder expireAfterAccess() {
+            this.expireAfterAccess = true;
+            return this;
+        }
+
+        /**
+         * Sets the function that computes the time to live of every written key-value pair,
+         * in place of the {@link #expirationTime(long)}.
+         *
+         * @param expiry the expiry
+         * @return this builder
+         */
+        public @NotNull Builder expiry(final @NotNull Expiry<?, ?> expiry) {
+            this.expiry = expiry;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of key-value pairs.
+         *
+         * @param maximumSize the maximum size (or {@link CacheMap#UNBOUNDED})
+         * @return this builder
+         */
+        public @NotNull Builder maximumSize(final long maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Sets how the values are referenced.
+         * With {@link ValueStrength#SOFT} or {@link ValueStrength#WEAK},
+         * values may be reclaimed by the garbage collector before expiring.
+         *
+         * @param valueStrength the value strength
+         * @return this builder
+         */
+        public @NotNull Builder valueStrength(final @NotNull ValueStrength valueStrength) {
+            this.valueStrength = valueStrength;
+            return this;
+        }
+
+        /**
+         * Stores the values off-heap, in slabs of 1 MB.
+         *
+         * @return this builder
+         * @see #offHeap(int)
+         */
+        public @NotNull Builder offHeap() {
+            return offHeap(DEFAULT_SLAB_SIZE);
+        }
+
+        /**
+         * Stores the values off-heap, serialized in slabs of the given size.
+         * Values larger than a slab are stored in a dedicated buffer.
+         *
+         * @param slabSize the size in bytes of every slab (a power of two)
+         * @return this builder
+         */
+        public @NotNull Builder offHeap(final int slabSize) {
+            if (slabSize < SlabAllocator.MINIMUM_CHUNK_SIZE || Integer.bitCount(slabSize) != 1)
+                throw new IllegalArgumentException("Slab size must be a power of two not lower than " +
+                        SlabAllocator.MINIMUM_CHUNK_SIZE);
+            this.slabSize = slabSize;
+            return this;
+        }
+
+        /**
+         * Spills the evicted key-value pairs to segment files of 8 MB in the given directory.
+         *
+         * @param directory the directory
+         * @return this builder
+         * @see #diskOverflow(Path, int)
+         */
+        public @NotNull Builder diskOverflow(final @NotNull Path directory) {
+            return diskOverflow(directory, DEFAULT_SEGMENT_SIZE);
+        }
+
+        /**
+         * Spills the key-value pairs evicted to respect the {@link #maximumSize(long)} or
+         * the {@link #maximumWeight(long)} to memory-mapped segment files in the given directory,
+         * rather than dropping them. Values must be {@link java.io.Serializable}.
+         * The directory is owned by the map: existing segment files are deleted.
+         *
+         * @param directory   the directory
+         * @param segmentSize the size in bytes of every segment file
+         * @return this builder
+         */
+        public @NotNull Builder diskOverflow(final @NotNull Path directory, final int segmentSize) {
+            if (segmentSize <= 0) throw new IllegalArgumentException("Segment size must be positive");
+            this.diskDirectory = directory;
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum total weight of the key-value pairs.
+         * Requires a {@link #weigher(Weigher)} and cannot be used with {@link #maximumSize(long)}.
+         *
+         * @param maximumWeight the maximum weight (or {@link CacheMap#UNBOUNDED})
+         * @return this builder
+         */
+        public @NotNull Builder maximumWeight(final long maximumWeight) {
+            this.maximumWeight = maximumWeight;
+            return this;
+        }
+
+        /**
+         * Sets the function that computes the weight of every written key-value pair.
+         *
+         * @param weigher the weigher
+         * @return this builder
+         */
+        public @NotNull Builder weigher(final @NotNull Weigher<?, ?> weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * Sets the way expired key-value pairs are looked for.
+         *
+         * @param expirationMode the expiration mode
+         * @return this builder
+         */
+        public @NotNull Builder expirationMode(final @NotNull ExpirationMode expirationMode) {
+            this.expirationMode = expirationMode;
+            return this;
+        }
+
+        /**
+         * Sets the thread that removes expired key-value pairs.
+         * With a background mode, the {@link #period(long)} is used as cadence.
+         *
+         * @param maintenanceMode the maintenance mode
+         * @return this builder
+         */
+        public @NotNull Builder maintenanceMode(final @NotNull MaintenanceMode maintenanceMode) {
+            this.maintenanceMode = maintenanceMode;
+            return this;
+        }
+
+        /**
+         * Sets the source of time used to compute expirations.
+         *
+         * @param ticker the ticker
+         * @return this builder
+         */
+        public @NotNull Builder ticker(final @NotNull Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /**
+         * Sets the time in milliseconds after which a value read from a {@link LoadingCacheMap}
+         * is reloaded asynchronously, while still returning the current one.
+         * It should be lower than the {@link #expirationTime(long)}.
+         * A value lower or equal to zero disables refreshing.
+         *
+         * @param refreshAfter the refresh time
+         * @return this builder
+         */
+        public @NotNull Builder refreshAfter(final long refreshAfter) {
+            this.refreshAfter = refreshAfter;
+            return this;
+        }
+
+        /**
+         * Sets the time in milliseconds for which a {@link LoadingCacheMap} remembers
+         * that the loader returned null for a key, without invoking it again.
+         * A value lower or equal to zero disables negative caching.
+         * At most {@value #DEFAULT_NEGATIVE_MAXIMUM_SIZE} keys are remembered.
+         *
+         * @param negativeExpirationTime the negative expiration time
+         * @return this builder
+         */
+        public @NotNull Builder negativeExpirationTime(final long negativeExpirationTime) {
+            this.negativeExpirationTime = negativeExpirationTime;
+            return this;
+        }
+
+        /**
+         * Sets the time in milliseconds for which a {@link LoadingCacheMap} remembers
+         * that the loader returned null for a key, without invoking it again.
+         * A value lower or equal to zero disables negative caching.
+         *
+         * @param negativeExpirationTime the negative expiration time
+         * @param maximumSize            the maximum number of keys remembered
+         * @return this builder
+         */
+        public @NotNull Builder negativeExpirationTime(final long negativeExpirationTime, final long maximumSize) {
+            this.negativeExpirationTime = negativeExpirationTime;
+            this.negativeMaximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Sets the source of all the keys that exist for the loader of a {@link LoadingCacheMap}.
+         * The keys are stored in a {@link BloomFilter}, rebuilt asynchronously every period on the {@link #executor(Executor)}:
+         * keys that are definitely not in the filter are rejected without reading the map or invoking the loader.
+         * Keys written to the map are added to the filter as well.
+         *
+         * @param knownKeys the source of the keys
+         * @param period    the period in milliseconds to rebuild the filter
+         * @return this builder
+         */
+        public @NotNull Builder knownKeys(final @NotNull SupplierException<? extends Collection<?>, Exception> knownKeys,
+                                          final long period) {
+            this.knownKeys = knownKeys;
+            this.knownKeysPeriod = period;
+            return this;
+        }
+
+        /**
+         * Sets the bus used to propagate the invalidations of the keys among processes.
+         * Every key written or removed is published on the given channel, and every key received
+         * on the same channel is removed.
+         * The bus only keeps a weak reference to the map, so that it can still be garbage collected.
+         *
+         * @param invalidationBus the invalidation bus
+         * @param channel         the name of the channel, shared by the maps of every process
+         * @return this builder
+         */
+        public @NotNull Builder invalidationBus(final @NotNull InvalidationBus invalidationBus, final @NotNull String channel) {
+            this.invalidationBus = invalidationBus;
+            this.invalidationChannel = channel;
+            return this;
+        }
+
+        /**
+         * Sets the listener notified every time a key-value pair leaves the map.
+         * Notifications are delivered in batches on the {@link #executor(Executor)}.
+         *
+         * @param removalListener the removal listener
+         * @return this builder
+         */
+        public @NotNull Builder removalListener(final @NotNull RemovalListener<?, ?> removalListener) {
+            this.removalListener = removalListener;
+            return this;
+        }
+
+        /**
+         * Sets the executor used for asynchronous tasks, such as refreshes and removal notifications.
+         * By default, {@link ForkJoinPool#commonPool()} is used.
+         *
+         * @param executor the executor
+         * @return this builder
+         */
+        public @NotNull Builder executor(final @NotNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Enables the recording of the statistics returned by {@link CacheMap#stats()}.
+         *
+         * @return this builder
+         */
+        public @NotNull Builder recordStats() {
+            this.recordStats = true;
+            return this;
+        }
+
+        /**
+         * Sets the expected number of threads concurrently updating the map.
+         * With {@link ExpirationMode#TIMING_WHEEL}, pairs are split among as many wheels
+         * (rounded up to a power of two), each guarded by its own lock.
+         * By default, the number of available processors.
+         *
+         * @param concurrencyLevel the concurrency level
+         * @return this builder
+         */
+        public @NotNull Builder concurrencyLevel(final int concurrencyLevel) {
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * Sets the number of key-value pairs checked at once with {@link ExpirationMode#SAMPLING}.
+         *
+         * @param sampleSize the sample size
+         * @return this builder
+         */
+        public @NotNull Builder sampleSize(final int sampleSize) {
+            this.sampleSize = sampleSize;
+            return this;
+        }
+
+        /**
+         * Sets the ratio of expired key-value pairs in a sample above which
+         * another sample is checked with {@link ExpirationMode#SAMPLING}.
+         *
+         * @param sampleThreshold the sample threshold (between 0 and 1)
+         * @return this builder
+         */
+        public @NotNull Builder sampleThreshold(final double sampleThreshold) {
+            this.sampleThreshold = sampleThreshold;
+            return this;
+        }
+
+        /**
+         * Creates a new {@link CacheMap} with the current settings.
+         *
+         * @param <K> the type parameter
+         * @param <V> the type parameter
+         * @return the cache map
+         */
+        public <K, V> @NotNull CacheMap<K, V> build() {
+            final CacheMap<K, V> map = new CacheMap<>(this);
+            map.start();
+            return map;
+        }
+
+        /**
+         * Creates a new {@link LoadingCacheMap} with the current settings.
+         *
+         * @param <K>    the type parameter
+         * @param <V>    the type parameter
+         * @param loader the function used to compute missing values
+         * @return the loading cache map
+         */
+        public <K, V> @NotNull LoadingCacheMap<K, V> build(final @NotNull FunctionException<K, V, Exception> loader) {
+            final LoadingCacheMap<K, V> map = new LoadingCacheMap<>(this, loader, null);
+            map.start();
+            return map;
+        }
+
+        /**
+         * Creates a new {@link LoadingCacheMap} with the current settings.
+         *
+         * @param <K>        the type parameter
+         * @param <V>        the type parameter
+         * @param loader     the function used to compute missing values
+         * @param bulkLoader the function used to compute many missing values at once
+         * @return the loading cache map
+         */
+        public <K, V> @NotNull LoadingCacheMap<K, V> build(final @NotNull FunctionException<K, V, Exception> loader,
+                                                           final @NotNull FunctionException<Collection<K>, Map<K, V>, Exception> bulkLoader) {
+            final LoadingCacheMap<K, V> map = new LoadingCacheMap<>(this, loader, bulkLoader);
+            map.start();
+            return map;
+        }
+    }
+
+    /**
+     * The listener of a map subscribed to an {@link InvalidationBus}.
+     * The map is only weakly referenced: once collected, the listener unsubscribes itself.
+     */
+    private static final class Subscription implements Consumer<Object>, Runnable {
+        private final @NotNull WeakReference<CacheMap<?, ?>> map;
+        private final @NotNull InvalidationBus bus;
+        private final @NotNull String channel;
+
+        Subscription(final @NotNull CacheMap<?, ?> map, final @NotNull InvalidationBus bus, final @NotNull String channel) {
+            this.map = new WeakReference<>(map);
+            this.bus = bus;
+            this.channel = channel;
+        }
+
+        void subscribe() {
+            this.bus.subscribe(this.channel, this, this);
+        }
+
+        @Override
+        public void accept(final @NotNull Object key) {
+            final CacheMap<?, ?> map = this.map.get();
+            if (map == null) this.bus.unsubscribe(this.channel, this);
+            else map.invalidate(key);
+        }
+
+        @Override
+        public void run() {
+            final CacheMap<?, ?> map = this.map.get();
+            if (map == null) this.bus.unsubscribe(this.channel, this);
+            else map.clearLocally();
+        }
+    }
+
+    /**
+     * A key-value pair scheduled in the {@link TimingWheel} of its {@link CacheMap}.
+     * The value and the timestamps are updated in place when the key is overwritten.
+     * Reads may postpone the expiration time without rescheduling the entry:
+     * when its bucket is reached, the wheel moves it to the bucket of the new time.
+     * Before being removed from the map, an entry is <i>retired</i> while holding its lock,
+     * so that it can no longer be updated.
+     * The value may be held by a {@link ValueReference}: once it is reclaimed, the entry is considered expired.
+     *
+     * @param <K> the type parameter
+     * @param <V> the type parameter
+     */
+    private static final class TimedEntry<K, V> extends TimingWheel.Node {
+        @SuppressWarnings("unchecked")
+        private static final AtomicLongFieldUpdater<TimedEntry<?, ?>> EXPIRATION_TIME =
+                AtomicLongFieldUpdater.newUpdater((Class<TimedEntry<?, ?>>) (Class<?>) TimedEntry.class, "expirationTime");
+
+        private final K key;
+        private volatile Object value;
+        private volatile long writeTime;
+        private volatile long ttl;
+        private volatile long expirationTime;
+        // Odd while a write is in progress
+        private volatile int version;
+        private boolean retired;
+
+        TimedEntry(final K key, final long writeTime, final long ttl, final long expirationTime) {
+            this.key = key;
+            this.writeTime = writeTime;
+            this.ttl = ttl;
+            this.expirationTime = expirationTime;
+        }
+
+        @SuppressWarnings("unchecked")
+        V getValue() {
+            for (; ; ) {
+                final Object value = this.value;
+                if (value instanceof ValueReference) return ((Reference<V>) value).get();
+                if (value instanceof OffHeapValue) {
+                    final V v = ((OffHeapValue<V>) value).get();
+                    // An in-place write freed the value after it was read: read the new one
+                    if (v == null && this.value != value) continue;
+                    return v;
+                }
+                return (V) value;
+            }
+        }
+
+        boolean isCollected() {
+            final Object value = this.value;
+            return value instanceof ValueReference && ((Reference<?>) value).get() == null;
+        }
+
+        boolean isExpired(final long now) {
+            return this.expirationTime <= now || isCollected();
+        }
+
+        /**
+         * Replaces the value and the times of this entry.
+         * Must be called while holding the lock of this entry.
+         *
+         * @param value          the new value
+         * @param writeTime      the write time
+         * @param ttl            the time to live
+         * @param expirationTime the expiration time
+         * @return the previous value
+         */
+        Object set(final Object value, final long writeTime, final long ttl, final long expirationTime) {
+            this.version++;
+            final Object old = this.value;
+            this.value = value;
+            this.writeTime = writeTime;
+            this.ttl = ttl;
+            this.expirationTime = expirationTime;
+            this.version++;
+            return old;
+        }
+
+        /**
+         * Postpones the expiration time to the given time plus the time to live.
+         * To keep reads cheap, no lock is acquired: the expiration time is only moved forward
+         * with a compare-and-set, and nothing is done if a write happens in the meantime,
+         * since the writer sets its own expiration time.
+         *
+         * @param now the current time
+         */
+        void extend(final long now) {
+            for (; ; ) {
+                final int version = this.version;
+                if ((version & 1) != 0) return;
+                final long current = this.expirationTime;
+                final long expirationTime = expirationTimeOf(now, this.ttl);
+                if (expirationTime <= current || version != this.version) return;
+                if (EXPIRATION_TIME.compareAndSet(this, current, expirationTime)) return;
+            }
+        }
+
+        synchronized boolean isRetired() {
+            return this.retired;
+        }
+
+        /**
+         * Marks this entry as retired.
+         *
+         * @return true if the entry was not retired already
+         */
+        synchronized boolean retire() {
+            if (this.retired) return false;
+            this.retired = true;
+            return true;
+        }
+
+        /**
+         * Marks this entry as retired, if it has expired.
+         *
+         * @param now the current time
+         * @return true if the entry was not retired already and has expired
+         */
+        synchronized boolean retireIfExpired(final long now) {
+            if (this.retired || !isExpired(now)) return false;
+            this.retired = true;
+            return true;
+        }
+
+        @Override
+        public long getExpirationTime() {
+            return this.expirationTime;
+        }
+    }
+
+    /**
+     * A reference to a value that knows the entry holding it.
+     *
+     * @param <K> the type parameter
+     * @param <V> the type parameter
+     */
+    private interface ValueReference<K, V> {
+
+        @NotNull TimedEntry<K, V> getEntry();
+    }
+
+    private static final class SoftValue<K, V> extends SoftReference<V> implements ValueReference<K, V> {
+        private final @NotNull TimedEntry<K, V> entry;
+
+        SoftValue(final @NotNull TimedEntry<K, V> entry, final V value, final @Nullable ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public @NotNull TimedEntry<K, V> getEntry() {
+            return this.entry;
+        }
+    }
+
+    private static final class WeakValue<K, V> extends WeakReference<V> implements ValueReference<K, V> {
+        private final @NotNull TimedEntry<K, V> entry;
+
+        WeakValue(final @NotNull TimedEntry<K, V> entry, final V value, final @Nullable ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.entry = entry;
+        }
+
+        @Override
+        public @NotNull TimedEntry<K, V> getEntry() {
+            return this.entry;
+        }
+    }
+
+    /**
+     * A value serialized off-heap.
+     *
+     * @param <V> the type parameter
+     */
+    private static final class OffHeapValue<V> {
+        private final @NotNull SlabAllocator.Handle handle;
+
+        OffHeapValue(final @NotNull SlabAllocator.Handle handle) {
+            this.handle = handle;
+        }
+
+        /**
+         * Deserializes the value.
+         *
+         * @return the value (null if it has been freed)
+         */
+        @Nullable V get() {
+            final byte[] data = this.handle.read();
+            return data == null ? null : SerializeUtils.deserialize(data);
+        }
     }
 }
@@ -0,0 +1,436 @@
+package it.fulminazzo.fulmicollection.structures;
+
+import it.fulminazzo.fulmicollection.interfaces.functions.FunctionException;
+import it.fulminazzo.fulmicollection.interfaces.functions.SupplierException;
+import it.fulminazzo.fulmicollection.objects.IgnoreField;
+import it.fulminazzo.fulmicollection.structures.cache.BloomFilter;
+import it.fulminazzo.fulmicollection.structures.cache.StatsCounter;
+import it.fulminazzo.fulmicollection.utils.ExceptionUtils;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link CacheMap} that computes missing values using a loader function.
+ * <p>
+ * For every key, only one load can be running at a time:
+ * concurrent callers wait for the same result instead of invoking the loader again.
+ * Exceptions thrown by the loader are propagated to every caller using {@link ExceptionUtils#throwException(Throwable)}.
+ * <p>
+ * Many values can be loaded at once with {@link #getAll(Collection)}:
+ * the missing keys are passed to the bulk loader in a single call.
+ * <p>
+ * If {@link Builder#refreshAfter(long)} is specified, values older than it are reloaded asynchronously
+ * on the next read, while the current value is still returned.
+ * <p>
+ * If {@link Builder#negativeExpirationTime(long)} is specified, keys for which the loader returned null
+ * are remembered for that time: until then, they are reported as absent without invoking the loader again.
+ * Writing a value for the key, or receiving its invalidation from an
+ * {@link it.fulminazzo.fulmicollection.structures.cache.InvalidationBus}, forgets it immediately.
+ * <p>
+ * If {@link Builder#knownKeys(SupplierException, long)} is specified, the existing keys are kept in a {@link BloomFilter}
+ * checked before anything else: keys that are definitely not in it are reported as absent
+ * without reading the map or invoking the loader.
+ * Keys added to the source are only recognized once the filter is rebuilt, unless they are written to the map.
+ *
+ * @param <K> the type parameter
+ * @param <V> the type parameter
+ */
+public class LoadingCacheMap<K, V> extends CacheMap<K, V> {
+    private static final double FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+    private final @NotNull FunctionException<K, V, Exception> loader;
+    private final @NotNull FunctionException<Collection<K>, Map<K, V>, Exception> bulkLoader;
+    private final @NotNull Map<K, CompletableFuture<V>> loading;
+    @Getter
+    private final long refreshAfter;
+    private final @NotNull Executor executor;
+    @IgnoreField
+    private final @Nullable CacheMap<Object, Boolean> negatives;
+    @IgnoreField
+    private final @Nullable SupplierException<? extends Collection<?>, Exception> knownKeys;
+    private final long knownKeysPeriod;
+    @IgnoreField
+    private final AtomicBoolean rebuilding;
+    @IgnoreField
+    private final Queue<K> written;
+    @IgnoreField
+    private volatile @Nullable BloomFilter<Object> filter;
+    @IgnoreField
+    private volatile long lastRebuild;
+
+    /**
+     * Instantiates a new Loading cache map.
+     *
+     * @param loader the function used to compute missing values
+     */
+    public LoadingCacheMap(final @NotNull FunctionException<K, V, Exception> loader) {
+        this(builder(), loader, null);
+    }
+
+    /**
+     * Instantiates a new Loading cache map.
+     *
+     * @param loader     the function used to compute missing values
+     * @param bulkLoader the function used to compute many missing values at once
+     */
+    public LoadingCacheMap(final @NotNull FunctionException<K, V, Exception> loader,
+                           final @NotNull FunctionException<Collection<K>, Map<K, V>, Exception> bulkLoader) {
+        this(builder(), loader, bulkLoader);
+    }
+
+    /**
+     * Instantiates a new Loading cache map.
+     *
+     * @param period         the period in milliseconds to check for expired values
+     * @param expirationTime the time in milliseconds after which key-value pairs are considered expired
+     * @param loader         the function used to compute missing values
+     */
+    public LoadingCacheMap(final long period, final long expirationTime,
+                           final @NotNull FunctionException<K, V, Exception> loader) {
+        this(builder().period(period).expirationTime(expirationTime), loader, null);
+    }
+
+    /**
+     * Instantiates a new Loading cache map.
+     *
+     * @param builder    the builder to take the settings from
+     * @param loader     the function used to compute missing values
+     * @param bulkLoader the function used to compute many missing values at once.
+     *                   If null, every value is computed using the loader.
+     */
+    protected LoadingCacheMap(final @NotNull Builder builder,
+                              final @NotNull FunctionException<K, V, Exception> loader,
+                              final @Nullable FunctionException<Collection<K>, Map<K, V>, Exception> bulkLoader) {
+        super(builder);
+        if (builder.refreshAfter > 0 && builder.refreshAfter >= getExpirationTime())
+            throw new IllegalArgumentException("Refresh time must be lower than expiration time");
+        if (builder.negativeExpirationTime > 0 && builder.negativeMaximumSize <= 0)
+            throw new IllegalArgumentException("Negative maximum size must be positive");
+        if (builder.knownKeys != null && builder.knownKeysPeriod <= 0)
+            throw new IllegalArgumentException("Known keys period must be positive");
+        this.loader = loader;
+        this.bulkLoader = bulkLoader == null ? this::loadEach : bulkLoader;
+        this.loading = new ConcurrentHashMap<>();
+        this.refreshAfter = builder.refreshAfter;
+        this.executor = builder.executor;
+        this.negatives = builder.negativeExpirationTime <= 0 ? null : builder()
+                .period(builder.negativeExpirationTime)
+                .expirationTime(builder.negativeExpirationTime)
+                .maximumSize(builder.negativeMaximumSize)
+                .ticker(this::now)
+                .build();
+        this.knownKeys = builder.knownKeys;
+        this.knownKeysPeriod = builder.knownKeysPeriod;
+        this.rebuilding = new AtomicBoolean();
+        this.written = new ConcurrentLinkedQueue<>();
+        if (this.knownKeys != null) rebuildIfNecessary(true);
+    }
+
+    /**
+     * Gets the value associated with the given key.
+     * If it is not present, it is computed using the loader and stored.
+     *
+     * @param o the key
+     * @return the value (null if the loader returned null)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object o) {
+        if (o == null) return null;
+        if (isRejected(o)) return null;
+        V value = super.get(o);
+        if (value != null || isNegative(o)) return value;
+        return load((K) o);
+    }
+
+    /**
+     * Computes the value of the given key using the loader and stores it.
+     * If another thread is already loading the same key, its result is awaited instead.
+     *
+     * @param key the key
+     * @return the value (null if the loader returned null)
+     */
+    protected @Nullable V load(final @NotNull K key) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> running = this.loading.putIfAbsent(key, future);
+        if (running == null) {
+            running = future;
+            // Another thread might have completed loading in the meantime
+            V value = peek(key);
+            if (value == null) compute(key, future, false, null);
+            else {
+                future.complete(value);
+                this.loading.remove(key, future);
+            }
+        }
+        return await(key, running);
+    }
+
+    /**
+     * Gets the values associated with the given keys.
+     * The missing ones are computed with a single call to the bulk loader and stored with the same write time.
+     * Keys that are already being loaded by other threads are awaited instead.
+     *
+     * @param keys the keys
+     * @return a map containing the found key-value pairs
+     */
+    @Override
+    public @NotNull Map<K, V> getAll(final @NotNull Collection<? extends K> keys) {
+        final List<K> accepted = new ArrayList<>(keys.size());
+        for (K key : keys) if (!isRejected(key)) accepted.add(key);
+        final Map<K, V> result = super.getAll(accepted);
+        final Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+        final Map<K, CompletableFuture<V>> owned = new LinkedHashMap<>();
+        for (K key : accepted) {
+            if (result.containsKey(key) || pending.containsKey(key) || isNegative(key)) continue;
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> running = this.loading.putIfAbsent(key, future);
+            if (running == null) {
+                running = future;
+                owned.put(key, future);
+            }
+            pending.put(key, running);
+        }
+        if (!owned.isEmpty()) computeAll(owned);
+        pending.forEach((k, f) -> {
+            V value = await(k, f);
+            if (value != null) result.put(k, value);
+        });
+        return result;
+    }
+
+    /**
+     * Reloads the value of the given key asynchronously.
+     * Until the new value is loaded, the current one is kept.
+     * If the key is already being loaded, nothing happens.
+     * If the key is written or removed before the load completes, the new value is discarded.
+     * Exceptions thrown by the loader are ignored.
+     *
+     * @param key the key
+     */
+    public void refresh(final @NotNull K key) {
+        final CompletableFuture<V> future = new Refresh<>();
+        if (this.loading.putIfAbsent(key, future) != null) return;
+        final V current = peek(key);
+        try {
+            this.executor.execute(() -> compute(key, future, true, current));
+        } catch (RejectedExecutionException e) {
+            this.loading.remove(key, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    protected void afterRead(final @NotNull K key, final long writeTime) {
+        if (this.refreshAfter > 0 && now() - writeTime >= this.refreshAfter) refresh(key);
+    }
+
+    @Override
+    protected void afterInvalidation(final @NotNull K key) {
+        // The key has been written by another process, so it might exist now
+        afterWrite(key);
+    }
+
+    @Override
+    protected void afterWrite(final @NotNull K key) {
+        if (this.negatives != null) this.negatives.remove(key);
+        if (this.knownKeys == null) return;
+        // Added before reading the filter, so that a rebuild in progress cannot miss it
+        if (this.rebuilding.get()) this.written.add(key);
+        final BloomFilter<Object> filter = this.filter;
+        if (filter != null) filter.put(key);
+    }
+
+    /**
+     * Checks if the given key is definitely not in the {@link BloomFilter} of the known keys.
+     * If the filter is older than its period, it is rebuilt asynchronously.
+     *
+     * @param key the key
+     * @return true if the key does not exist
+     */
+    private boolean isRejected(final @NotNull Object key) {
+        if (this.knownKeys == null) return false;
+        rebuildIfNecessary(false);
+        final BloomFilter<Object> filter = this.filter;
+        if (filter == null || filter.mightContain(key)) return false;
+        final StatsCounter stats = statsCounter();
+        if (stats != null) stats.recordMisses(1);
+        return true;
+    }
+
+    /**
+     * Checks if the loader recently returned null for the given key.
+     *
+     * @param key the key
+     * @return true if it did
+     */
+    private boolean isNegative(final @NotNull Object key) {
+        return this.negatives != null && this.negatives.containsKey(key);
+    }
+
+    /**
+     * Rebuilds the {@link BloomFilter} of the known keys on the executor,
+     * if its period has elapsed and no other rebuild is in progress.
+     *
+     * @param force if true, the period is ignored
+     */
+    private void rebuildIfNecessary(final boolean force) {
+        if (!force && now() - this.lastRebuild < this.knownKeysPeriod) return;
+        if (!this.rebuilding.compareAndSet(false, true)) return;
+        try {
+            this.executor.execute(this::rebuild);
+        } catch (RejectedExecutionException e) {
+            this.rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Builds a new {@link BloomFilter} from the known keys and the keys in memory.
+     * If the source of the keys fails, the current filter is kept.
+     */
+    private void rebuild() {
+        try {
+            final Collection<?> keys = Objects.requireNonNull(this.knownKeys).get();
+            final Set<K> inMemory = keySet();
+            final BloomFilter<Object> filter = new BloomFilter<>((long) keys.size() + inMemory.size(), FILTER_FALSE_POSITIVE_RATE);
+            for (Object key : keys) if (key != null) filter.put(key);
+            for (K key : inMemory) filter.put(key);
+            this.filter = filter;
+        } catch (Exception ignored) {
+            // The current filter is still valid for the keys it knows
+        } finally {
+            this.lastRebuild = now();
+            this.rebuilding.set(false);
+            final BloomFilter<Object> filter = this.filter;
+            K key;
+            while ((key = this.written.poll()) != null) if (filter != null) filter.put(key);
+        }
+    }
+
+    /**
+     * Computes the value of the given key, stores it and completes the future.
+     * When refreshing, the value is stored only if the key is still associated with the given current value
+     * (or still absent, if it was null), so that writes and removals happened in the meantime are not overwritten.
+     *
+     * @param key     the key
+     * @param future  the future registered in {@link #loading}
+     * @param refresh true if the key is being refreshed
+     * @param current the value associated with the key when the refresh started
+     */
+    private void compute(final @NotNull K key, final @NotNull CompletableFuture<V> future,
+                         final boolean refresh, final @Nullable V current) {
+        final StatsCounter stats = statsCounter();
+        final long start = stats == null ? 0 : System.nanoTime();
+        try {
+            V value = this.loader.apply(key);
+            if (stats != null) stats.recordLoadSuccess(System.nanoTime() - start);
+            if (value != null) {
+                if (!refresh) putLocally(key, value);
+                else if (current == null) putIfAbsentLocally(key, value);
+                else replaceLocally(key, current, value);
+            } else if (this.negatives != null && (!refresh || peek(key) == null))
+                // A refresh finding nothing does not make the value still cached missing
+                this.negatives.put(key, true);
+            future.complete(value);
+        } catch (Throwable e) {
+            if (stats != null) stats.recordLoadFailure(System.nanoTime() - start);
+            future.completeExceptionally(e);
+        } finally {
+            this.loading.remove(key, future);
+        }
+    }
+
+    /**
+     * Computes the values of the given keys with the bulk loader, stores them and completes the futures.
+     *
+     * @param futures the futures registered in {@link #loading}
+     */
+    private void computeAll(final @NotNull Map<K, CompletableFuture<V>> futures) {
+        final StatsCounter stats = statsCounter();
+        final long start = stats == null ? 0 : System.nanoTime();
+        try {
+            Map<K, V> loaded = this.bulkLoader.apply(Collections.unmodifiableSet(futures.keySet()));
+            if (stats != null) stats.recordLoadSuccess(System.nanoTime() - start);
+            if (loaded == null) loaded = Collections.emptyMap();
+            final Map<K, V> values = new HashMap<>();
+            loaded.forEach((k, v) -> {
+                if (k != null && v != null) values.put(k, v);
+            });
+            putAllLocally(values);
+            if (this.negatives != null)
+                for (K key : futures.keySet()) if (!values.containsKey(key)) this.negatives.put(key, true);
+            futures.forEach((k, f) -> f.complete(values.get(k)));
+        } catch (Throwable e) {
+            if (stats != null) stats.recordLoadFailure(System.nanoTime() - start);
+            futures.values().forEach(f -> f.completeExceptionally(e));
+        } finally {
+            futures.forEach(this.loading::remove);
+        }
+    }
+
+    /**
+     * The default bulk loader: computes every value using the loader.
+     *
+     * @param keys the keys
+     * @return the values
+     * @throws Exception the exception thrown by the loader
+     */
+    private @NotNull Map<K, V> loadEach(final @NotNull Collection<K> keys) throws Exception {
+        final Map<K, V> values = new HashMap<>();
+        for (K key : keys) values.put(key, this.loader.apply(key));
+        return values;
+    }
+
+    /**
+     * Waits for the given future to complete.
+     * If it belongs to a refresh which failed or returned null, the value is loaded again,
+     * so that callers waiting for it do not lose the value still cached.
+     *
+     * @param key    the key
+     * @param future the future
+     * @return the result
+     */
+    private @Nullable V await(final @NotNull K key, final @NotNull CompletableFuture<V> future) {
+        if (!(future instanceof Refresh)) return await(future);
+        final V value = await(future.exceptionally(e -> null));
+        if (value != null) return value;
+        this.loading.remove(key, future);
+        return load(key);
+    }
+
+    /**
+     * Waits for the given future to complete.
+     *
+     * @param future the future
+     * @return the result
+     */
+    private @Nullable V await(final @NotNull CompletableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ExceptionUtils.throwException(e);
+        } catch (ExecutionException e) {
+            ExceptionUtils.throwException(e);
+        }
+        return null;
+    }
+
+    /**
+     * The future of a value being refreshed, whose failures are not propagated to the callers waiting for it.
+     *
+     * @param <V> the type of the value
+     */
+    private static final class Refresh<V> extends CompletableFuture<V> {
+    }
+}
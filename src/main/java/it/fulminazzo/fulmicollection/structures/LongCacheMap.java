@@ -0,0 +1,187 @@
+package it.fulminazzo.fulmicollection.structures;
+
+import it.fulminazzo.fulmicollection.structures.cache.Ticker;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An expiring map with primitive <code>long</code> keys.
+ * <p>
+ * Compared to a {@link CacheMap} with {@link Long} keys, neither keys nor pairs are boxed:
+ * every pair only takes a slot in three parallel arrays of keys, values and expiration times.
+ * Values cannot be null.
+ * <p>
+ * Every operation is thread-safe: reads share a lock, while writes acquire it exclusively.
+ *
+ * @param <V> the type of the values
+ */
+public class LongCacheMap<V> extends PrimitiveCacheMap<V> {
+    private long[] keys;
+
+    /**
+     * Instantiates a new Long cache map.
+     */
+    public LongCacheMap() {
+        this(CacheMap.DEFAULT_PERIOD);
+    }
+
+    /**
+     * Instantiates a new Long cache map.
+     *
+     * @param period the period in milliseconds to check for expired values
+     */
+    public LongCacheMap(final long period) {
+        this(period, CacheMap.DEFAULT_EXPIRE_TIME);
+    }
+
+    /**
+     * Instantiates a new Long cache map.
+     *
+     * @param period         the period in milliseconds to check for expired values
+     * @param expirationTime the time in milliseconds after which key-value pairs are considered expired
+     */
+    public LongCacheMap(final long period, final long expirationTime) {
+        this(period, expirationTime, 0, Ticker.cached());
+    }
+
+    /**
+     * Instantiates a new Long cache map.
+     *
+     * @param period          the period in milliseconds to check for expired values
+     * @param expirationTime  the time in milliseconds after which key-value pairs are considered expired
+     * @param initialCapacity the number of key-value pairs to allocate space for
+     * @param ticker          the source of time
+     */
+    public LongCacheMap(final long period, final long expirationTime, final int initialCapacity,
+                        final @NotNull Ticker ticker) {
+        super(period, expirationTime, initialCapacity, ticker);
+        this.keys = new long[this.values.length];
+    }
+
+    /**
+     * Gets the value associated with the given key.
+     *
+     * @param key the key
+     * @return the value (or null if absent or expired)
+     */
+    public @Nullable V get(final long key) {
+        checkIfNecessary();
+        this.lock.readLock().lock();
+        try {
+            return valueAt(indexOf(key), now());
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks if the given key is associated with a value that has not expired.
+     *
+     * @param key the key
+     * @return true if it is
+     */
+    public boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates the given value with the given key, using {@link #getExpirationTime()} as time to live.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the previous value (or null if absent or expired)
+     */
+    public @Nullable V put(final long key, final @NotNull V value) {
+        return put(key, value, getExpirationTime());
+    }
+
+    /**
+     * Associates the given value with the given key, using the given time to live.
+     *
+     * @param key   the key
+     * @param value the value
+     * @param ttl   the time in milliseconds after which the pair is considered expired
+     * @return the previous value (or null if absent or expired)
+     */
+    public @Nullable V put(final long key, final @NotNull V value, final long ttl) {
+        checkPut(value, ttl);
+        checkIfNecessary();
+        this.lock.writeLock().lock();
+        try {
+            int slot = indexOf(key);
+            if (slot < 0) {
+                slot = -slot - 1;
+                this.keys[slot] = key;
+            }
+            return storeAt(slot, value, ttl, now());
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the value associated with the given key.
+     *
+     * @param key the key
+     * @return the removed value (or null if absent or expired)
+     */
+    public @Nullable V remove(final long key) {
+        checkIfNecessary();
+        this.lock.writeLock().lock();
+        try {
+            final int slot = indexOf(key);
+            return slot < 0 ? null : removeAt(slot);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the slot of the given key.
+     *
+     * @param key the key
+     * @return the slot, if found, otherwise <code>-(insertion slot) - 1</code>
+     */
+    private int indexOf(final long key) {
+        final Object[] values = this.values;
+        final int mask = values.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            if (this.keys[slot] == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    @Override
+    int hashAt(final int slot) {
+        return hash(this.keys[slot]);
+    }
+
+    @Override
+    void moveKey(final int from, final int to) {
+        this.keys[to] = this.keys[from];
+    }
+
+    @Override
+    @NotNull Object resizeKeys(final int capacity) {
+        final long[] previous = this.keys;
+        this.keys = new long[capacity];
+        return previous;
+    }
+
+    @Override
+    int hashOf(final @NotNull Object keys, final int slot) {
+        return hash(((long[]) keys)[slot]);
+    }
+
+    @Override
+    void copyKey(final @NotNull Object keys, final int from, final int to) {
+        this.keys[to] = ((long[]) keys)[from];
+    }
+
+    private static int hash(final long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
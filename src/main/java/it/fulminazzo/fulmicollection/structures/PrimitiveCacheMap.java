@@ -0,0 +1,287 @@
+package it.fulminazzo.fulmicollection.structures;
+
+import it.fulminazzo.fulmicollection.structures.cache.Ticker;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The base of the expiring maps with primitive keys.
+ * <p>
+ * Key-value pairs are stored in an open-addressing table with linear probing:
+ * the keys, the values and the expiration times are kept in parallel arrays,
+ * so no object is allocated for a pair.
+ * Removed pairs are not marked with tombstones: the following pairs of the same cluster are shifted back instead.
+ * <p>
+ * Expiration follows the same rules of {@link CacheMap}: expired pairs are never returned and,
+ * once every period, the first caller to notice it removes them.
+ * The table is swept in chunks of {@link #SWEEP_CHUNK_SIZE} slots, releasing the lock between them.
+ *
+ * @param <V> the type of the values
+ */
+abstract class PrimitiveCacheMap<V> {
+    private static final int MINIMUM_CAPACITY = 16;
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    private static final int SWEEP_CHUNK_SIZE = 4096;
+
+    final ReentrantReadWriteLock lock;
+    private final @NotNull Ticker ticker;
+    @Getter
+    private final long period;
+    @Getter
+    private final long expirationTime;
+    private final AtomicLong lastCheck;
+    Object[] values;
+    long[] expirationTimes;
+    private int size;
+
+    /**
+     * Instantiates a new Primitive cache map.
+     *
+     * @param period          the period in milliseconds to check for expired values
+     * @param expirationTime  the time in milliseconds after which key-value pairs are considered expired
+     * @param initialCapacity the number of key-value pairs to allocate space for
+     * @param ticker          the source of time
+     */
+    PrimitiveCacheMap(final long period, final long expirationTime, final int initialCapacity,
+                      final @NotNull Ticker ticker) {
+        if (expirationTime < 0) throw new IllegalArgumentException("Expiration time cannot be negative");
+        if (initialCapacity < 0) throw new IllegalArgumentException("Initial capacity cannot be negative");
+        this.lock = new ReentrantReadWriteLock();
+        this.ticker = ticker;
+        this.period = period;
+        this.expirationTime = expirationTime;
+        this.lastCheck = new AtomicLong(now());
+        final int capacity = capacityOf(initialCapacity);
+        this.values = new Object[capacity];
+        this.expirationTimes = new long[capacity];
+    }
+
+    /**
+     * Gets the number of key-value pairs.
+     * Expired pairs are counted until they are removed.
+     *
+     * @return the size
+     */
+    public int size() {
+        checkIfNecessary();
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks if the map is empty.
+     *
+     * @return true if it is
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes every key-value pair.
+     */
+    public void clear() {
+        this.lock.writeLock().lock();
+        try {
+            Arrays.fill(this.values, null);
+            this.size = 0;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all the key-value pairs that have exceeded their expiration time.
+     */
+    public void clearExpired() {
+        final long now = now();
+        this.lastCheck.set(now);
+        clearExpired(now);
+    }
+
+    private void clearExpired(final long now) {
+        for (int start = 0; ; start += SWEEP_CHUNK_SIZE) {
+            this.lock.writeLock().lock();
+            try {
+                // The table might have been resized in the meantime: the next sweep will catch any missed pair
+                if (start >= this.values.length) return;
+                final int end = Math.min(start + SWEEP_CHUNK_SIZE, this.values.length);
+                for (int slot = start; slot < end; )
+                    // Another pair might be shifted in the removed slot
+                    if (this.values[slot] != null && this.expirationTimes[slot] <= now) removeAt(slot);
+                    else slot++;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Removes the expired key-value pairs, if the period has elapsed since the last check.
+     * Among concurrent callers, only the first one removes them.
+     */
+    final void checkIfNecessary() {
+        final long last = this.lastCheck.get();
+        final long now = now();
+        if (now - last >= this.period && this.lastCheck.compareAndSet(last, now)) clearExpired(now);
+    }
+
+    /**
+     * Gets the current time from the ticker.
+     *
+     * @return the time
+     */
+    final long now() {
+        return this.ticker.read();
+    }
+
+    /**
+     * Gets the value at the given slot, if it has not expired.
+     * Should be called while holding the lock.
+     *
+     * @param slot the slot
+     * @param now  the current time
+     * @return the value (or null)
+     */
+    @SuppressWarnings("unchecked")
+    final @Nullable V valueAt(final int slot, final long now) {
+        if (slot < 0 || this.expirationTimes[slot] <= now) return null;
+        return (V) this.values[slot];
+    }
+
+    /**
+     * Stores the given value at the given slot.
+     * If the slot was empty, the key must be set by the caller <b>before</b> invoking this method.
+     * Should be called while holding the write lock.
+     *
+     * @param slot  the slot
+     * @param value the value
+     * @param ttl   the time to live in milliseconds
+     * @param now   the current time
+     * @return the previous value, if present and not expired
+     */
+    final @Nullable V storeAt(final int slot, final @NotNull V value, final long ttl, final long now) {
+        final V previous = valueAt(slot, now);
+        if (this.values[slot] == null) this.size++;
+        this.values[slot] = value;
+        this.expirationTimes[slot] = ttl > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttl;
+        if (this.size > this.values.length - (this.values.length >>> 2)) resize();
+        return previous;
+    }
+
+    /**
+     * Removes the pair at the given slot, shifting back the following pairs of its cluster.
+     * Should be called while holding the write lock.
+     *
+     * @param slot the slot
+     * @return the removed value, if not expired
+     */
+    final @Nullable V removeAt(int slot) {
+        final V previous = valueAt(slot, now());
+        final int mask = this.values.length - 1;
+        int hole = slot;
+        while (this.values[slot = (slot + 1) & mask] != null) {
+            final int home = hashAt(slot) & mask;
+            // The pair can fill the hole only if the hole is between its home and its slot
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                this.values[hole] = this.values[slot];
+                this.expirationTimes[hole] = this.expirationTimes[slot];
+                moveKey(slot, hole);
+                hole = slot;
+            }
+        }
+        this.values[hole] = null;
+        this.size--;
+        return previous;
+    }
+
+    /**
+     * Checks that the given value is not null and that the given time to live is not negative.
+     *
+     * @param value the value
+     * @param ttl   the time to live
+     */
+    static void checkPut(final @Nullable Object value, final long ttl) {
+        if (value == null) throw new IllegalArgumentException("Value cannot be null");
+        if (ttl < 0) throw new IllegalArgumentException("Time to live cannot be negative");
+    }
+
+    private void resize() {
+        final Object[] oldValues = this.values;
+        final long[] oldExpirationTimes = this.expirationTimes;
+        if (oldValues.length == MAXIMUM_CAPACITY) {
+            if (this.size < MAXIMUM_CAPACITY - 1) return;
+            throw new IllegalStateException("Maximum capacity reached");
+        }
+        final int capacity = oldValues.length << 1;
+        final int mask = capacity - 1;
+        this.values = new Object[capacity];
+        this.expirationTimes = new long[capacity];
+        final Object oldKeys = resizeKeys(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) continue;
+            int slot = hashOf(oldKeys, i) & mask;
+            while (this.values[slot] != null) slot = (slot + 1) & mask;
+            this.values[slot] = oldValues[i];
+            this.expirationTimes[slot] = oldExpirationTimes[i];
+            copyKey(oldKeys, i, slot);
+        }
+    }
+
+    /**
+     * Gets the hash of the key at the given slot.
+     *
+     * @param slot the slot
+     * @return the hash
+     */
+    abstract int hashAt(final int slot);
+
+    /**
+     * Moves the key at the given slot to another slot.
+     *
+     * @param from the source slot
+     * @param to   the destination slot
+     */
+    abstract void moveKey(final int from, final int to);
+
+    /**
+     * Replaces the array of the keys with an empty one of the given capacity.
+     *
+     * @param capacity the capacity
+     * @return the previous array
+     */
+    abstract @NotNull Object resizeKeys(final int capacity);
+
+    /**
+     * Gets the hash of the key at the given slot of the given array.
+     *
+     * @param keys an array returned by {@link #resizeKeys(int)}
+     * @param slot the slot
+     * @return the hash
+     */
+    abstract int hashOf(final @NotNull Object keys, final int slot);
+
+    /**
+     * Copies a key from the given array to the current one.
+     *
+     * @param keys an array returned by {@link #resizeKeys(int)}
+     * @param from the source slot
+     * @param to   the destination slot
+     */
+    abstract void copyKey(final @NotNull Object keys, final int from, final int to);
+
+    private static int capacityOf(final int expectedSize) {
+        final long minimum = Math.max(MINIMUM_CAPACITY, (long) expectedSize * 4 / 3 + 1);
+        if (minimum >= MAXIMUM_CAPACITY) return MAXIMUM_CAPACITY;
+        return Integer.highestOneBit((int) minimum - 1) << 1;
+    }
+}
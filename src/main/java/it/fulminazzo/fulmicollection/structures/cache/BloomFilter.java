@@ -0,0 +1,89 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A probabilistic set that tells if an element has <b>possibly</b> been added or has <b>definitely</b> not.
+ * <p>
+ * Every element sets a few bits of a fixed bit array, chosen by different hashes of {@link Object#hashCode()}.
+ * Elements cannot be removed: the filter should be rebuilt instead.
+ * <p>
+ * This class is thread-safe: bits are set with atomic operations.
+ *
+ * @param <E> the type of the elements
+ */
+public class BloomFilter<E> {
+    private static final int MAXIMUM_HASHES = 16;
+
+    private final AtomicLongArray bits;
+    @Getter
+    private final long bitCount;
+    @Getter
+    private final int hashCount;
+
+    /**
+     * Instantiates a new Bloom filter.
+     *
+     * @param expectedElements  the expected number of elements
+     * @param falsePositiveRate the desired probability of {@link #mightContain(Object)} returning true
+     *                          for an element that has not been added, once the expected elements have been added
+     */
+    public BloomFilter(final long expectedElements, final double falsePositiveRate) {
+        if (expectedElements < 0) throw new IllegalArgumentException("Expected elements cannot be negative");
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        final long elements = Math.max(expectedElements, 1);
+        final double log2 = Math.log(2);
+        final long optimalBits = (long) Math.ceil(-elements * Math.log(falsePositiveRate) / (log2 * log2));
+        final int words = (int) Math.min((Math.max(optimalBits, Long.SIZE) + Long.SIZE - 1) / Long.SIZE, Integer.MAX_VALUE - 8);
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = (long) words * Long.SIZE;
+        this.hashCount = (int) Math.max(1, Math.min(Math.round((double) this.bitCount / elements * log2), MAXIMUM_HASHES));
+    }
+
+    /**
+     * Adds the given element.
+     *
+     * @param element the element
+     */
+    public void put(final @NotNull E element) {
+        final long hash = mix(element.hashCode());
+        final long first = hash >>> 32;
+        final long second = hash | 1;
+        for (int i = 0; i < this.hashCount; i++) {
+            final long bit = ((first + i * second) & Long.MAX_VALUE) % this.bitCount;
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long current;
+            while (((current = this.bits.get(word)) & mask) == 0)
+                if (this.bits.compareAndSet(word, current, current | mask)) break;
+        }
+    }
+
+    /**
+     * Checks if the given element might have been added.
+     *
+     * @param element the element
+     * @return false if it has definitely not been added
+     */
+    public boolean mightContain(final @NotNull Object element) {
+        final long hash = mix(element.hashCode());
+        final long first = hash >>> 32;
+        final long second = hash | 1;
+        for (int i = 0; i < this.hashCount; i++) {
+            final long bit = ((first + i * second) & Long.MAX_VALUE) % this.bitCount;
+            if ((this.bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    private static long mix(final int hashCode) {
+        long hash = hashCode * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,236 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The binary format used to save the key-value pairs of a {@link it.fulminazzo.fulmicollection.structures.CacheMap}.
+ * <p>
+ * A snapshot starts with {@link #MAGIC} and {@link #VERSION}, followed by a sequence of records.
+ * Every record contains the wall-clock write and expiration times and the time to live in milliseconds,
+ * followed by the serialized key and value, each prefixed by its length.
+ * <p>
+ * Files are streamed through a {@link FileChannel} with a fixed buffer, so that no snapshot is ever fully loaded in memory.
+ */
+public final class CacheSnapshot {
+    /**
+     * The first bytes of every snapshot.
+     */
+    public static final int MAGIC = 0x434D4150;
+    /**
+     * The version of the format.
+     */
+    public static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int RECORD_HEADER_SIZE = Long.BYTES * 3 + Integer.BYTES * 2;
+
+    private CacheSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot.
+     * Records are written to a temporary file, moved to the destination on {@link #commit()}.
+     * If the writer is closed without committing, the temporary file is deleted.
+     */
+    public static final class Writer implements Closeable {
+        private final @NotNull Path path;
+        private final @NotNull Path temporary;
+        private final @NotNull FileChannel channel;
+        private final @NotNull ByteBuffer buffer;
+        private boolean committed;
+
+        /**
+         * Instantiates a new Writer.
+         *
+         * @param path the destination file
+         * @throws IOException if the temporary file cannot be created
+         */
+        public Writer(final @NotNull Path path) throws IOException {
+            this.path = path;
+            this.temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            this.channel = FileChannel.open(this.temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            this.buffer.putInt(MAGIC).putInt(VERSION);
+        }
+
+        /**
+         * Writes a record.
+         *
+         * @param key            the serialized key
+         * @param value          the serialized value
+         * @param writeTime      the wall-clock write time
+         * @param ttl            the time to live
+         * @param expirationTime the wall-clock expiration time
+         * @throws IOException if the record cannot be written
+         */
+        public void write(final byte @NotNull [] key, final byte @NotNull [] value,
+                          final long writeTime, final long ttl, final long expirationTime) throws IOException {
+            ensure(RECORD_HEADER_SIZE);
+            this.buffer.putLong(writeTime).putLong(ttl).putLong(expirationTime).putInt(key.length).putInt(value.length);
+            put(key);
+            put(value);
+        }
+
+        private void put(final byte @NotNull [] data) throws IOException {
+            if (data.length > this.buffer.capacity()) {
+                flush();
+                final ByteBuffer wrapped = ByteBuffer.wrap(data);
+                while (wrapped.hasRemaining()) this.channel.write(wrapped);
+            } else {
+                ensure(data.length);
+                this.buffer.put(data);
+            }
+        }
+
+        private void ensure(final int size) throws IOException {
+            if (this.buffer.remaining() < size) flush();
+        }
+
+        private void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining()) this.channel.write(this.buffer);
+            this.buffer.clear();
+        }
+
+        /**
+         * Flushes the remaining records and moves the snapshot to its destination.
+         *
+         * @throws IOException if the snapshot cannot be saved
+         */
+        public void commit() throws IOException {
+            try (FileChannel channel = this.channel) {
+                flush();
+                channel.force(true);
+            }
+            Files.move(this.temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.committed) return;
+            this.channel.close();
+            Files.deleteIfExists(this.temporary);
+        }
+    }
+
+    /**
+     * Reads a snapshot, one record at a time.
+     */
+    public static final class Reader implements Closeable {
+        private final @NotNull FileChannel channel;
+        private final @NotNull ByteBuffer buffer;
+
+        /**
+         * Instantiates a new Reader.
+         *
+         * @param path the snapshot file
+         * @throws IOException if the file cannot be opened or is not a valid snapshot
+         */
+        public Reader(final @NotNull Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            this.buffer.flip();
+            try {
+                if (!fill(HEADER_SIZE) || this.buffer.getInt() != MAGIC)
+                    throw new IOException("Invalid cache snapshot: " + path);
+                final int version = this.buffer.getInt();
+                if (version != VERSION) throw new IOException("Unsupported cache snapshot version: " + version);
+            } catch (IOException e) {
+                this.channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return the record (null if the snapshot has ended)
+         * @throws IOException if the record cannot be read or is truncated
+         */
+        public @Nullable Record next() throws IOException {
+            if (!fill(RECORD_HEADER_SIZE)) {
+                if (this.buffer.hasRemaining()) throw new EOFException("Truncated cache snapshot");
+                return null;
+            }
+            final long writeTime = this.buffer.getLong();
+            final long ttl = this.buffer.getLong();
+            final long expirationTime = this.buffer.getLong();
+            final int keyLength = this.buffer.getInt();
+            final int valueLength = this.buffer.getInt();
+            if (keyLength < 0 || valueLength < 0) throw new IOException("Corrupted cache snapshot");
+            return new Record(get(keyLength), get(valueLength), writeTime, ttl, expirationTime);
+        }
+
+        private byte @NotNull [] get(final int length) throws IOException {
+            final byte[] data = new byte[length];
+            final int buffered = Math.min(length, this.buffer.remaining());
+            this.buffer.get(data, 0, buffered);
+            if (buffered < length) {
+                // Read the rest directly, bypassing the buffer
+                final ByteBuffer wrapped = ByteBuffer.wrap(data, buffered, length - buffered);
+                while (wrapped.hasRemaining())
+                    if (this.channel.read(wrapped) < 0) throw new EOFException("Truncated cache snapshot");
+            }
+            return data;
+        }
+
+        /**
+         * Reads from the channel until the buffer contains at least the given number of bytes.
+         *
+         * @param size the number of bytes
+         * @return false if the end of the file was reached first
+         * @throws IOException if the file cannot be read
+         */
+        private boolean fill(final int size) throws IOException {
+            if (this.buffer.remaining() >= size) return true;
+            this.buffer.compact();
+            try {
+                while (this.buffer.position() < size)
+                    if (this.channel.read(this.buffer) < 0) return false;
+                return true;
+            } finally {
+                this.buffer.flip();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * A key-value pair read from a snapshot.
+     */
+    @Getter
+    public static final class Record {
+        private final byte @NotNull [] key;
+        private final byte @NotNull [] value;
+        private final long writeTime;
+        private final long ttl;
+        private final long expirationTime;
+
+        Record(final byte @NotNull [] key, final byte @NotNull [] value,
+               final long writeTime, final long ttl, final long expirationTime) {
+            this.key = key;
+            this.value = value;
+            this.writeTime = writeTime;
+            this.ttl = ttl;
+            this.expirationTime = expirationTime;
+        }
+    }
+}
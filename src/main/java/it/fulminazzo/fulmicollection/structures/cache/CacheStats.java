@@ -0,0 +1,152 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import it.fulminazzo.fulmicollection.objects.FieldEquable;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An immutable snapshot of the statistics of a {@link it.fulminazzo.fulmicollection.structures.CacheMap}.
+ * Times are expressed in nanoseconds.
+ */
+@Getter
+public final class CacheStats extends FieldEquable {
+    private static final CacheStats EMPTY = new CacheStats(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long expirationCount;
+    private final long evictionCount;
+    private final long sweepCount;
+    private final long totalSweepTime;
+
+    /**
+     * Instantiates a new Cache stats.
+     *
+     * @param hitCount         the number of reads that found a value
+     * @param missCount        the number of reads that did not find a value
+     * @param putCount         the number of written values
+     * @param loadSuccessCount the number of successful loads
+     * @param loadFailureCount the number of failed loads
+     * @param totalLoadTime    the total time spent loading
+     * @param expirationCount  the number of values removed because expired
+     * @param evictionCount    the number of values removed to respect the maximum size
+     * @param sweepCount       the number of sweeps for expired values
+     * @param totalSweepTime   the total time spent sweeping
+     */
+    public CacheStats(final long hitCount, final long missCount, final long putCount,
+                      final long loadSuccessCount, final long loadFailureCount, final long totalLoadTime,
+                      final long expirationCount, final long evictionCount,
+                      final long sweepCount, final long totalSweepTime) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.expirationCount = expirationCount;
+        this.evictionCount = evictionCount;
+        this.sweepCount = sweepCount;
+        this.totalSweepTime = totalSweepTime;
+    }
+
+    /**
+     * Returns a snapshot with every statistic set to zero.
+     *
+     * @return the statistics
+     */
+    public static @NotNull CacheStats empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Gets the number of reads.
+     *
+     * @return the sum of {@link #getHitCount()} and {@link #getMissCount()}
+     */
+    public long getRequestCount() {
+        return this.hitCount + this.missCount;
+    }
+
+    /**
+     * Gets the ratio of reads that found a value.
+     *
+     * @return the hit rate (1 if no read was done)
+     */
+    public double getHitRate() {
+        final long requestCount = getRequestCount();
+        return requestCount == 0 ? 1 : (double) this.hitCount / requestCount;
+    }
+
+    /**
+     * Gets the ratio of reads that did not find a value.
+     *
+     * @return the miss rate (0 if no read was done)
+     */
+    public double getMissRate() {
+        final long requestCount = getRequestCount();
+        return requestCount == 0 ? 0 : (double) this.missCount / requestCount;
+    }
+
+    /**
+     * Gets the number of loads.
+     *
+     * @return the sum of {@link #getLoadSuccessCount()} and {@link #getLoadFailureCount()}
+     */
+    public long getLoadCount() {
+        return this.loadSuccessCount + this.loadFailureCount;
+    }
+
+    /**
+     * Gets the ratio of loads that failed.
+     *
+     * @return the load failure rate (0 if no load was done)
+     */
+    public double getLoadFailureRate() {
+        final long loadCount = getLoadCount();
+        return loadCount == 0 ? 0 : (double) this.loadFailureCount / loadCount;
+    }
+
+    /**
+     * Gets the average time spent loading a value.
+     *
+     * @return the average load time (0 if no load was done)
+     */
+    public double getAverageLoadTime() {
+        final long loadCount = getLoadCount();
+        return loadCount == 0 ? 0 : (double) this.totalLoadTime / loadCount;
+    }
+
+    /**
+     * Gets the average time spent by a sweep.
+     *
+     * @return the average sweep time (0 if no sweep was done)
+     */
+    public double getAverageSweepTime() {
+        return this.sweepCount == 0 ? 0 : (double) this.totalSweepTime / this.sweepCount;
+    }
+
+    /**
+     * Computes the difference between this snapshot and a previous one.
+     *
+     * @param previous the previous snapshot
+     * @return the statistics recorded between the two snapshots
+     */
+    public @NotNull CacheStats minus(final @NotNull CacheStats previous) {
+        return new CacheStats(
+                Math.max(0, this.hitCount - previous.hitCount),
+                Math.max(0, this.missCount - previous.missCount),
+                Math.max(0, this.putCount - previous.putCount),
+                Math.max(0, this.loadSuccessCount - previous.loadSuccessCount),
+                Math.max(0, this.loadFailureCount - previous.loadFailureCount),
+                Math.max(0, this.totalLoadTime - previous.totalLoadTime),
+                Math.max(0, this.expirationCount - previous.expirationCount),
+                Math.max(0, this.evictionCount - previous.evictionCount),
+                Math.max(0, this.sweepCount - previous.sweepCount),
+                Math.max(0, this.totalSweepTime - previous.totalSweepTime)
+        );
+    }
+}
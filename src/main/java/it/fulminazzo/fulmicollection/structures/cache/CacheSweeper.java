@@ -0,0 +1,102 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * An utils class that periodically executes maintenance tasks in background.
+ * Every task of the same {@link MaintenanceMode} shares a single thread.
+ * <p>
+ * Targets are only weakly referenced: once they are garbage collected, their task is cancelled.
+ */
+public final class CacheSweeper {
+    private static final String PLATFORM_THREAD_NAME = "Cache-Sweeper";
+    private static final String VIRTUAL_THREAD_NAME = "Cache-Sweeper-Virtual";
+    private static ScheduledThreadPoolExecutor platformExecutor;
+    private static ScheduledThreadPoolExecutor virtualExecutor;
+
+    private CacheSweeper() {
+    }
+
+    /**
+     * Executes the given action on the target every period, until the target is garbage collected.
+     *
+     * @param <T>    the type of the target
+     * @param target the target
+     * @param action the action (should not hold a strong reference to the target)
+     * @param period the period in milliseconds
+     * @param mode   the mode, either {@link MaintenanceMode#PLATFORM_THREAD} or {@link MaintenanceMode#VIRTUAL_THREAD}
+     */
+    public static <T> void register(final @NotNull T target, final @NotNull Consumer<? super T> action,
+                                    final long period, final @NotNull MaintenanceMode mode) {
+        if (!mode.isBackground()) throw new IllegalArgumentException("Cannot register task with mode " + mode);
+        if (period <= 0) throw new IllegalArgumentException("Period must be positive");
+        final WeakReference<T> reference = new WeakReference<>(target);
+        final AtomicReference<ScheduledFuture<?>> future = new AtomicReference<>();
+        future.set(getExecutor(mode).scheduleWithFixedDelay(() -> {
+            T t = reference.get();
+            if (t == null) {
+                ScheduledFuture<?> f = future.get();
+                if (f != null) f.cancel(false);
+                return;
+            }
+            try {
+                action.accept(t);
+            } catch (RuntimeException ignored) {
+                // A failing sweep should not prevent the next ones
+            }
+        }, period, period, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Checks if virtual threads are supported by the current Java version.
+     *
+     * @return true if they are
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static synchronized @NotNull ScheduledThreadPoolExecutor getExecutor(final @NotNull MaintenanceMode mode) {
+        if (mode == MaintenanceMode.VIRTUAL_THREAD) {
+            if (virtualExecutor == null) virtualExecutor = newExecutor(virtualThreadFactory());
+            return virtualExecutor;
+        } else {
+            if (platformExecutor == null) platformExecutor = newExecutor(r -> {
+                Thread thread = new Thread(r, PLATFORM_THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            });
+            return platformExecutor;
+        }
+    }
+
+    private static @NotNull ScheduledThreadPoolExecutor newExecutor(final @NotNull ThreadFactory threadFactory) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private static @NotNull ThreadFactory virtualThreadFactory() {
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class).invoke(builder, VIRTUAL_THREAD_NAME);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by the current Java version", e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+/**
+ * Identifies how a {@link it.fulminazzo.fulmicollection.structures.CacheMap} looks for expired key-value pairs.
+ */
+public enum ExpirationMode {
+    /**
+     * Every pair is scheduled in a {@link TimingWheel} and,
+     * once every period, only the pairs that are due are removed.
+     */
+    TIMING_WHEEL,
+    /**
+     * On every operation, a small sample of pairs is checked and the expired ones are removed.
+     * The check is repeated as long as the ratio of expired pairs in the sample exceeds a threshold.
+     */
+    SAMPLING
+}
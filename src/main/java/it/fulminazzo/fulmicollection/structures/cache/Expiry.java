@@ -0,0 +1,24 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A function that computes how long a key-value pair of a
+ * {@link it.fulminazzo.fulmicollection.structures.CacheMap} should live.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@FunctionalInterface
+public interface Expiry<K, V> {
+
+    /**
+     * Computes the time in milliseconds after which the given key-value pair is considered expired.
+     * Called every time the pair is written.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the time to live (cannot be negative)
+     */
+    long expireAfter(@NotNull K key, V value);
+}
@@ -0,0 +1,123 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A count-min sketch that estimates the popularity of elements with 4-bit counters.
+ * <p>
+ * Every counter is incremented up to 15 and, once the number of increments reaches
+ * the sample size, all the counters are halved so that old popularity fades away.
+ * <p>
+ * This class is <b>not</b> thread-safe and should be guarded externally.
+ *
+ * @param <E> the type of the elements
+ */
+public class FrequencySketch<E> {
+    private static final long[] SEEDS = new long[]{
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAXIMUM_COUNTER = 15;
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 30;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int size;
+
+    /**
+     * Instantiates a new Frequency sketch.
+     *
+     * @param maximumSize the expected maximum number of elements
+     */
+    public FrequencySketch(final long maximumSize) {
+        final int capacity = capacityOf(maximumSize);
+        this.table = new long[tableSizeOf(capacity)];
+        this.tableMask = this.table.length - 1;
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Enlarges the sketch, if it was created for less than the given number of elements.
+     * Since elements cannot be rehashed, every popularity is lost.
+     *
+     * @param maximumSize the expected maximum number of elements
+     */
+    public void ensureCapacity(final long maximumSize) {
+        final int capacity = capacityOf(maximumSize);
+        final int tableSize = tableSizeOf(capacity);
+        if (tableSize <= this.table.length) return;
+        this.table = new long[tableSize];
+        this.tableMask = tableSize - 1;
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+        this.size = 0;
+    }
+
+    /**
+     * Gets the estimated number of occurrences of the given element, up to 15.
+     *
+     * @param element the element
+     * @return the frequency
+     */
+    public int frequency(final @NotNull E element) {
+        final int hash = spread(element.hashCode());
+        int frequency = MAXIMUM_COUNTER;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final long counters = this.table[indexOf(hash, i)];
+            frequency = Math.min(frequency, (int) ((counters >>> offsetOf(hash, i)) & MAXIMUM_COUNTER));
+        }
+        return frequency;
+    }
+
+    /**
+     * Increments the popularity of the given element.
+     *
+     * @param element the element
+     */
+    public void increment(final @NotNull E element) {
+        final int hash = spread(element.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            final int index = indexOf(hash, i);
+            final int offset = offsetOf(hash, i);
+            if (((this.table[index] >>> offset) & MAXIMUM_COUNTER) != MAXIMUM_COUNTER) {
+                this.table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++this.size == this.sampleSize) reset();
+    }
+
+    /**
+     * Halves every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < this.table.length; i++)
+            this.table[i] = (this.table[i] >>> 1) & RESET_MASK;
+        this.size >>>= 1;
+    }
+
+    private int indexOf(final int hash, final int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & this.tableMask;
+    }
+
+    private static int offsetOf(final int hash, final int depth) {
+        return ((hash >>> (depth << 3)) & 15) << 2;
+    }
+
+    private static int capacityOf(final long maximumSize) {
+        return (int) Math.max(Math.min(maximumSize, MAXIMUM_TABLE_SIZE), 8);
+    }
+
+    private static int tableSizeOf(final int capacity) {
+        return Integer.highestOneBit(capacity - 1) << 1;
+    }
+
+    private static int spread(int hash) {
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,391 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import it.fulminazzo.fulmicollection.utils.SerializeUtils;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Propagates key invalidations among processes of the same host through UDP datagrams on the loopback interface.
+ * <p>
+ * Every bus is bound to its own loopback address and sends invalidations to a set of peers.
+ * Since UDP source addresses are not authenticated, only loopback addresses are accepted,
+ * so that datagrams cannot come from other hosts.
+ * Keys are published on a named channel and coalesced: if no delivery is pending,
+ * a single task is submitted to the executor to send every pending key,
+ * packed in as few datagrams as possible.
+ * Publishing the same key many times before the delivery results in a single invalidation.
+ * <p>
+ * Datagrams are received by a daemon thread and passed to the listener subscribed to their channel.
+ * Only datagrams coming from a peer are accepted, and those sent by this bus are ignored,
+ * so the same list of addresses can be used by every process.
+ * Received invalidations are never published again.
+ * A whole channel can be invalidated at once with {@link #publishClear(String)}.
+ * <p>
+ * Keys must be {@link java.io.Serializable}: the ones that cannot be serialized are not sent.
+ * Received keys are deserialized only if every class in their stream is allowed:
+ * by default, strings, boxed primitives, big numbers and {@link UUID}s.
+ * Other classes must be allowed with {@link #allowKeyClass(Class)}, otherwise their keys are discarded.
+ * Since UDP is not reliable, invalidations might be lost: the pairs should still have an expiration time.
+ */
+public class InvalidationBus implements Closeable {
+    private static final int MAGIC = 0x494E5642;
+    private static final int MAXIMUM_DATAGRAM_SIZE = 1 << 15;
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES + Short.BYTES + Integer.BYTES;
+    // Sent in place of the number of keys to invalidate the whole channel
+    private static final int CLEAR = -1;
+    private static final List<Class<?>> DEFAULT_KEY_CLASSES = Arrays.asList(
+            String.class, Boolean.class, Character.class, Number.class, Byte.class, Short.class, Integer.class,
+            Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class, UUID.class, Enum.class
+    );
+
+    private final @NotNull DatagramChannel channel;
+    @Getter
+    private final @NotNull InetSocketAddress address;
+    @Getter
+    private final long senderId;
+    private final @NotNull Executor executor;
+    private final @NotNull Set<SocketAddress> peers;
+    private final @NotNull Map<String, Listener> listeners;
+    private final @NotNull Map<String, Set<Object>> pending;
+    private final @NotNull Set<String> pendingClears;
+    private final @NotNull AtomicBoolean scheduled;
+    private final @NotNull Set<String> allowedKeyClasses;
+
+    /**
+     * Instantiates a new Invalidation bus.
+     *
+     * @param address the loopback address to bind to
+     * @throws IOException if the address cannot be bound
+     */
+    public InvalidationBus(final @NotNull InetSocketAddress address) throws IOException {
+        this(address, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Instantiates a new Invalidation bus.
+     *
+     * @param address  the loopback address to bind to
+     * @param executor the executor used to send the invalidations
+     * @throws IOException if the address cannot be bound
+     */
+    public InvalidationBus(final @NotNull InetSocketAddress address, final @NotNull Executor executor) throws IOException {
+        checkLoopback(address);
+        this.channel = DatagramChannel.open().bind(address);
+        this.address = (InetSocketAddress) this.channel.getLocalAddress();
+        this.senderId = ThreadLocalRandom.current().nextLong();
+        this.executor = executor;
+        this.peers = new CopyOnWriteArraySet<>();
+        this.listeners = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentHashMap<>();
+        this.pendingClears = ConcurrentHashMap.newKeySet();
+        this.scheduled = new AtomicBoolean();
+        this.allowedKeyClasses = ConcurrentHashMap.newKeySet();
+        for (Class<?> keyClass : DEFAULT_KEY_CLASSES) this.allowedKeyClasses.add(keyClass.getName());
+        final Thread receiver = new Thread(this::receive, "InvalidationBus-" + this.address.getPort());
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    private static void checkLoopback(final @NotNull InetSocketAddress address) {
+        if (address.getAddress() == null || !address.getAddress().isLoopbackAddress())
+            throw new IllegalArgumentException("Address must be a loopback address: " + address);
+    }
+
+    /**
+     * Adds a peer to send the invalidations to and to accept them from.
+     *
+     * @param peer the loopback address of the peer
+     */
+    public void addPeer(final @NotNull InetSocketAddress peer) {
+        checkLoopback(peer);
+        this.peers.add(peer);
+    }
+
+    /**
+     * Allows the keys of the given class to be received.
+     * If the keys contain objects of other classes, those must be allowed as well.
+     *
+     * @param keyClass the class
+     */
+    public void allowKeyClass(final @NotNull Class<?> keyClass) {
+        this.allowedKeyClasses.add(keyClass.getName());
+    }
+
+    /**
+     * Removes a peer.
+     *
+     * @param peer the address of the peer
+     */
+    public void removePeer(final @NotNull InetSocketAddress peer) {
+        this.peers.remove(peer);
+    }
+
+    /**
+     * Sets the listener of the invalidations received on the given channel.
+     * Every channel has at most one listener: the previous one is replaced.
+     * Exceptions thrown by the listener are ignored.
+     *
+     * @param channel  the name of the channel
+     * @param listener the listener
+     */
+    public void subscribe(final @NotNull String channel, final @NotNull Consumer<Object> listener) {
+        this.listeners.put(channel, new Listener(listener, null));
+    }
+
+    /**
+     * Sets the listeners of the invalidations received on the given channel.
+     * Every channel has at most one listener: the previous one is replaced.
+     * Exceptions thrown by the listeners are ignored.
+     *
+     * @param channel       the name of the channel
+     * @param listener      the listener of the invalidated keys
+     * @param clearListener the listener executed when the whole channel is invalidated
+     */
+    public void subscribe(final @NotNull String channel, final @NotNull Consumer<Object> listener,
+                          final @NotNull Runnable clearListener) {
+        this.listeners.put(channel, new Listener(listener, clearListener));
+    }
+
+    /**
+     * Removes the listener of the given channel.
+     *
+     * @param channel the name of the channel
+     */
+    public void unsubscribe(final @NotNull String channel) {
+        this.listeners.remove(channel);
+    }
+
+    /**
+     * Removes the listener of the given channel, only if it is the given one.
+     *
+     * @param channel  the name of the channel
+     * @param listener the listener
+     */
+    public void unsubscribe(final @NotNull String channel, final @NotNull Consumer<Object> listener) {
+        this.listeners.computeIfPresent(channel, (c, l) -> l.keys == listener ? null : l);
+    }
+
+    /**
+     * Queues the invalidation of the given key on the given channel.
+     *
+     * @param channel the name of the channel
+     * @param key     the key
+     */
+    public void publish(final @NotNull String channel, final @NotNull Object key) {
+        if (this.peers.isEmpty()) return;
+        this.pending.computeIfAbsent(channel, c -> ConcurrentHashMap.newKeySet()).add(key);
+        schedule();
+    }
+
+    /**
+     * Queues the invalidation of every key on the given channel.
+     *
+     * @param channel the name of the channel
+     */
+    public void publishClear(final @NotNull String channel) {
+        if (this.peers.isEmpty()) return;
+        this.pendingClears.add(channel);
+        schedule();
+    }
+
+    private void schedule() {
+        if (!this.scheduled.compareAndSet(false, true)) return;
+        try {
+            this.executor.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        do {
+            final Iterator<String> clears = this.pendingClears.iterator();
+            while (clears.hasNext()) {
+                final byte[] name = clears.next().getBytes(StandardCharsets.UTF_8);
+                clears.remove();
+                send(name, CLEAR, Collections.emptyList());
+            }
+            for (Map.Entry<String, Set<Object>> entry : this.pending.entrySet()) {
+                final byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                final List<byte[]> keys = new ArrayList<>();
+                final Iterator<Object> iterator = entry.getValue().iterator();
+                while (iterator.hasNext()) {
+                    final byte[] key = SerializeUtils.serialize(iterator.next());
+                    iterator.remove();
+                    if (key != null && HEADER_SIZE + name.length + Integer.BYTES + key.length <= MAXIMUM_DATAGRAM_SIZE)
+                        keys.add(key);
+                }
+                if (!keys.isEmpty()) send(name, keys);
+            }
+            this.scheduled.set(false);
+            // Keys published after the last iteration, but before releasing the flag
+        } while (hasPending() && this.scheduled.compareAndSet(false, true));
+    }
+
+    private boolean hasPending() {
+        if (!this.pendingClears.isEmpty()) return true;
+        for (Set<Object> keys : this.pending.values()) if (!keys.isEmpty()) return true;
+        return false;
+    }
+
+    /**
+     * Sends the given keys to every peer, in as few datagrams as possible.
+     *
+     * @param name the name of the channel
+     * @param keys the serialized keys
+     */
+    private void send(final byte @NotNull [] name, final @NotNull List<byte[]> keys) {
+        int start = 0;
+        while (start < keys.size()) {
+            int end = start;
+            int size = HEADER_SIZE + name.length;
+            while (end < keys.size() && size + Integer.BYTES + keys.get(end).length <= MAXIMUM_DATAGRAM_SIZE)
+                size += Integer.BYTES + keys.get(end++).length;
+            send(name, end - start, keys.subList(start, end));
+            start = end;
+        }
+    }
+
+    /**
+     * Sends a single datagram to every peer.
+     *
+     * @param name  the name of the channel
+     * @param count the number of keys, or {@link #CLEAR}
+     * @param keys  the serialized keys
+     */
+    private void send(final byte @NotNull [] name, final int count, final @NotNull List<byte[]> keys) {
+        final ByteBuffer buffer = ByteBuffer.allocate(MAXIMUM_DATAGRAM_SIZE);
+        buffer.putInt(MAGIC).putLong(this.senderId);
+        buffer.putShort((short) name.length).put(name);
+        buffer.putInt(count);
+        for (byte[] key : keys) buffer.putInt(key.length).put(key);
+        buffer.flip();
+        for (SocketAddress peer : this.peers)
+            try {
+                this.channel.send(buffer.duplicate(), peer);
+            } catch (IOException ignored) {
+                // Peers that are not listening are simply skipped
+            }
+    }
+
+    private void receive() {
+        final ByteBuffer buffer = ByteBuffer.allocate(MAXIMUM_DATAGRAM_SIZE);
+        while (this.channel.isOpen()) {
+            try {
+                buffer.clear();
+                final SocketAddress source = this.channel.receive(buffer);
+                if (!this.peers.contains(source)) continue;
+                buffer.flip();
+                if (buffer.getInt() != MAGIC || buffer.getLong() == this.senderId) continue;
+                final byte[] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                final Listener listener = this.listeners.get(new String(name, StandardCharsets.UTF_8));
+                if (listener == null) continue;
+                final int count = buffer.getInt();
+                if (count == CLEAR && listener.clear != null)
+                    try {
+                        listener.clear.run();
+                    } catch (RuntimeException ignored) {
+                        // Failing listeners must not stop the receiver
+                    }
+                for (int i = count; i > 0; i--) {
+                    final byte[] data = new byte[buffer.getInt()];
+                    buffer.get(data);
+                    final Object key = decode(data);
+                    if (key != null)
+                        try {
+                            listener.keys.accept(key);
+                        } catch (RuntimeException ignored) {
+                            // Failing listeners must not stop the other invalidations
+                        }
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException | RuntimeException ignored) {
+                // Malformed datagrams are discarded
+            }
+        }
+    }
+
+    /**
+     * Deserializes a received key, as long as every class in its stream is allowed.
+     *
+     * @param data the serialized key
+     * @return the key (null if it is not valid or not allowed)
+     */
+    private @Nullable Object decode(final byte @NotNull [] data) {
+        try (ObjectInputStream stream = new KeyInputStream(new ByteArrayInputStream(data))) {
+            return stream.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Closes the bus: no more invalidations are sent or received.
+     *
+     * @throws IOException if the channel cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private static final class Listener {
+        private final @NotNull Consumer<Object> keys;
+        private final @Nullable Runnable clear;
+
+        Listener(final @NotNull Consumer<Object> keys, final @Nullable Runnable clear) {
+            this.keys = keys;
+            this.clear = clear;
+        }
+    }
+
+    /**
+     * An {@link ObjectInputStream} that only resolves the allowed key classes.
+     */
+    private final class KeyInputStream extends ObjectInputStream {
+
+        KeyInputStream(final @NotNull InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final @NotNull ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!InvalidationBus.this.allowedKeyClasses.contains(desc.getName()))
+                throw new InvalidClassException(desc.getName(), "Key class not allowed");
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(final String @NotNull [] interfaces) throws IOException {
+            throw new InvalidClassException("Proxy classes are not allowed as keys");
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+/**
+ * Identifies which thread removes the expired key-value pairs of a
+ * {@link it.fulminazzo.fulmicollection.structures.CacheMap}.
+ */
+public enum MaintenanceMode {
+    /**
+     * The thread that accesses the map, once the period has elapsed.
+     */
+    CALLER,
+    /**
+     * A shared platform daemon thread, scheduled every period.
+     */
+    PLATFORM_THREAD,
+    /**
+     * A shared virtual thread, scheduled every period.
+     * Requires Java 21 or higher.
+     */
+    VIRTUAL_THREAD;
+
+    /**
+     * Checks if the maintenance is executed in background.
+     *
+     * @return true if it is
+     */
+    public boolean isBackground() {
+        return this != CALLER;
+    }
+}
@@ -0,0 +1,42 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The implementation of {@link Ticker#precise()} and {@link Ticker#cached()}.
+ * The returned times start from the system time at class initialization, so that they look like timestamps,
+ * but they are not affected by later changes of the system clock.
+ */
+final class MonotonicTicker implements Ticker {
+    private static final String THREAD_NAME = "Cache-Ticker";
+    private static final long ORIGIN_MILLIS = System.currentTimeMillis();
+    private static final long ORIGIN_NANOS = System.nanoTime();
+    static final MonotonicTicker CACHED = new MonotonicTicker();
+
+    private volatile long time;
+
+    private MonotonicTicker() {
+        this.time = precise();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> this.time = precise(), 1, 1, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long read() {
+        return this.time;
+    }
+
+    /**
+     * Returns the current monotonic time in milliseconds.
+     *
+     * @return the time
+     */
+    static long precise() {
+        return ORIGIN_MILLIS + (System.nanoTime() - ORIGIN_NANOS) / 1_000_000;
+    }
+}
@@ -0,0 +1,38 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+/**
+ * Identifies why a key-value pair left a {@link it.fulminazzo.fulmicollection.structures.CacheMap}.
+ */
+public enum RemovalCause {
+    /**
+     * The pair was removed by the user.
+     */
+    EXPLICIT,
+    /**
+     * The value was overwritten by the user.
+     */
+    REPLACED,
+    /**
+     * The pair exceeded its expiration time.
+     */
+    EXPIRED,
+    /**
+     * The pair was evicted to respect the maximum size.
+     */
+    SIZE,
+    /**
+     * The value was reclaimed by the garbage collector.
+     *
+     * @see ValueStrength
+     */
+    COLLECTED;
+
+    /**
+     * Checks if the pair was removed automatically, rather than by the user.
+     *
+     * @return true if it was
+     */
+    public boolean wasEvicted() {
+        return this != EXPLICIT && this != REPLACED;
+    }
+}
@@ -0,0 +1,22 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A listener notified every time a key-value pair leaves a {@link it.fulminazzo.fulmicollection.structures.CacheMap}.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+
+    /**
+     * Called after the given key-value pair has been removed.
+     *
+     * @param key   the key
+     * @param value the value
+     * @param cause the cause of the removal
+     */
+    void onRemoval(K key, V value, @NotNull RemovalCause cause);
+}
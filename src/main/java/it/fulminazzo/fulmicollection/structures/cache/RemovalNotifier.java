@@ -0,0 +1,91 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers removal notifications to a {@link RemovalListener} in batches.
+ * <p>
+ * Notifications are queued and, if no delivery is pending, a single task is submitted to the executor
+ * to drain the whole queue: removing many pairs at once results in one task, not one per pair.
+ * Exceptions thrown by the listener are ignored.
+ * If the executor rejects the task, the queue is drained by the calling thread.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class RemovalNotifier<K, V> {
+    private final @NotNull RemovalListener<K, V> listener;
+    private final @NotNull Executor executor;
+    private final @NotNull Queue<Notification<K, V>> queue;
+    private final @NotNull AtomicBoolean scheduled;
+
+    /**
+     * Instantiates a new Removal notifier.
+     *
+     * @param listener the listener
+     * @param executor the executor used to deliver the notifications
+     */
+    public RemovalNotifier(final @NotNull RemovalListener<K, V> listener, final @NotNull Executor executor) {
+        this.listener = listener;
+        this.executor = executor;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Queues a notification for the given key-value pair.
+     *
+     * @param key   the key
+     * @param value the value
+     * @param cause the cause of the removal
+     */
+    public void notify(final K key, final V value, final @NotNull RemovalCause cause) {
+        this.queue.offer(new Notification<>(key, value, cause));
+        schedule();
+    }
+
+    private void schedule() {
+        if (!this.scheduled.compareAndSet(false, true)) return;
+        try {
+            this.executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            drain();
+        }
+    }
+
+    private void drain() {
+        do {
+            try {
+                Notification<K, V> notification;
+                while ((notification = this.queue.poll()) != null)
+                    try {
+                        this.listener.onRemoval(notification.key, notification.value, notification.cause);
+                    } catch (RuntimeException ignored) {
+
+                    }
+            } finally {
+                // Errors thrown by the listener must not stop the next notifications from being drained
+                this.scheduled.set(false);
+            }
+            // Notifications queued after the last poll, but before releasing the flag
+        } while (!this.queue.isEmpty() && this.scheduled.compareAndSet(false, true));
+    }
+
+    private static final class Notification<K, V> {
+        private final K key;
+        private final V value;
+        private final RemovalCause cause;
+
+        Notification(final K key, final V value, final RemovalCause cause) {
+            this.key = key;
+            this.value = value;
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import it.fulminazzo.fulmicollection.utils.ExceptionUtils;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A disk store of serialized values, used as second tier of a {@link it.fulminazzo.fulmicollection.structures.CacheMap}.
+ * <p>
+ * Values are appended to memory-mapped segment files, while an in-memory index keeps, for every key,
+ * the position of its value and its expiration time.
+ * Since segments are never overwritten, reads do not acquire any lock.
+ * <p>
+ * Removed, overwritten and expired values leave garbage behind: once the garbage of a segment exceeds half of it,
+ * a compaction is submitted to the executor, moving the live values to the current segment and deleting the old file.
+ * <p>
+ * The directory is owned by the store: segment files left by previous instances are deleted.
+ *
+ * @param <K> the type of the keys
+ */
+public class SegmentStore<K> {
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".dat";
+    private static final double COMPACTION_RATIO = 0.5;
+
+    @Getter
+    private final @NotNull Path directory;
+    @Getter
+    private final int segmentSize;
+    private final @NotNull Executor executor;
+    private final @NotNull Map<K, Location> index;
+    private final @NotNull List<Segment> segments;
+    private final @NotNull AtomicBoolean compacting;
+    private @Nullable Segment current;
+    private int nextId;
+
+    /**
+     * Instantiates a new Segment store.
+     *
+     * @param directory   the directory of the segment files
+     * @param segmentSize the size in bytes of every segment
+     * @param executor    the executor used for compactions
+     */
+    public SegmentStore(final @NotNull Path directory, final int segmentSize, final @NotNull Executor executor) {
+        if (segmentSize <= 0) throw new IllegalArgumentException("Segment size must be positive");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.executor = executor;
+        this.index = new ConcurrentHashMap<>();
+        this.segments = new ArrayList<>();
+        this.compacting = new AtomicBoolean();
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+                for (Path path : stream) Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            ExceptionUtils.throwException(e);
+        }
+    }
+
+    /**
+     * Stores the given value.
+     *
+     * @param key            the key
+     * @param data           the serialized value
+     * @param expirationTime the time in milliseconds at which the value expires
+     */
+    public void put(final @NotNull K key, final byte @NotNull [] data, final long expirationTime) {
+        final Location previous;
+        synchronized (this) {
+            // Indexed while holding the lock, so that compactions always find the values of the segments they pick
+            previous = this.index.put(key, append(data, expirationTime));
+        }
+        discard(previous);
+    }
+
+    /**
+     * Gets the value of the given key.
+     * If it has expired, it is removed.
+     *
+     * @param key the key
+     * @param now the current time
+     * @return the serialized value (null if not present or expired)
+     */
+    public byte @Nullable [] get(final @NotNull Object key, final long now) {
+        final Location location = this.index.get(key);
+        if (location == null) return null;
+        if (location.expirationTime <= now) {
+            if (this.index.remove(key, location)) discard(location);
+            return null;
+        }
+        return location.read();
+    }
+
+    /**
+     * Gets the expiration time of the given key.
+     *
+     * @param key the key
+     * @return the expiration time (or {@link Long#MIN_VALUE} if not present)
+     */
+    public long getExpirationTime(final @NotNull Object key) {
+        final Location location = this.index.get(key);
+        return location == null ? Long.MIN_VALUE : location.expirationTime;
+    }
+
+    /**
+     * Checks if the given key has a value that has not expired.
+     *
+     * @param key the key
+     * @param now the current time
+     * @return true if it has
+     */
+    public boolean contains(final @NotNull Object key, final long now) {
+        final Location location = this.index.get(key);
+        return location != null && location.expirationTime > now;
+    }
+
+    /**
+     * Removes the value of the given key.
+     *
+     * @param key the key
+     * @param now the current time
+     * @return the serialized value (null if not present or expired)
+     */
+    public byte @Nullable [] remove(final @NotNull Object key, final long now) {
+        final Location location = this.index.remove(key);
+        if (location == null) return null;
+        final byte[] data = location.expirationTime <= now ? null : location.read();
+        discard(location);
+        return data;
+    }
+
+    /**
+     * Removes the value of the given key, without reading it.
+     *
+     * @param key the key
+     */
+    public void invalidate(final @NotNull Object key) {
+        discard(this.index.remove(key));
+    }
+
+    /**
+     * Gets the number of values in the store, including the expired ones not removed yet.
+     *
+     * @return the size
+     */
+    public int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Removes every value and deletes all the segment files.
+     */
+    public synchronized void clear() {
+        this.index.clear();
+        for (Segment segment : this.segments) segment.delete();
+        this.segments.clear();
+        this.current = null;
+    }
+
+    /**
+     * Gets the number of segment files currently in use.
+     *
+     * @return the number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * Submits a compaction to the executor, unless one is already pending.
+     *
+     * @param now the current time, used to remove expired values
+     * @see #compact(long)
+     */
+    public void scheduleCompaction(final long now) {
+        if (!this.compacting.compareAndSet(false, true)) return;
+        try {
+            this.executor.execute(() -> {
+                try {
+                    compact(now);
+                } finally {
+                    this.compacting.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.compacting.set(false);
+        }
+    }
+
+    /**
+     * Removes the values expired at the given time and rewrites every segment
+     * whose garbage exceeds half of it.
+     *
+     * @param now the current time
+     */
+    public void compact(final long now) {
+        // Picked before collecting the live values, as no value can be appended to them anymore
+        final Set<Segment> candidates = new LinkedHashSet<>();
+        synchronized (this) {
+            for (Segment segment : this.segments)
+                if (segment != this.current && segment.isGarbage()) candidates.add(segment);
+        }
+        final Map<Segment, List<Map.Entry<K, Location>>> live = new HashMap<>();
+        for (Map.Entry<K, Location> entry : this.index.entrySet()) {
+            final Location location = entry.getValue();
+            if (location.expirationTime <= now) {
+                if (this.index.remove(entry.getKey(), location)) discard(location);
+            } else if (candidates.contains(location.segment))
+                live.computeIfAbsent(location.segment, s -> new ArrayList<>()).add(entry);
+        }
+        for (Segment segment : candidates) {
+            for (Map.Entry<K, Location> entry : live.getOrDefault(segment, Collections.emptyList())) {
+                final Location location = entry.getValue();
+                final byte[] data = location.read();
+                final Location relocated;
+                synchronized (this) {
+                    relocated = append(data, location.expirationTime);
+                }
+                // The value might have been removed or overwritten in the meantime
+                if (!this.index.replace(entry.getKey(), location, relocated)) discard(relocated);
+            }
+            synchronized (this) {
+                this.segments.remove(segment);
+            }
+            segment.delete();
+        }
+    }
+
+    private @NotNull Location append(final byte @NotNull [] data, final long expirationTime) {
+        Segment segment = this.current;
+        if (segment == null || segment.remaining() < data.length) {
+            segment = new Segment(this.directory.resolve(PREFIX + this.nextId++ + SUFFIX),
+                    Math.max(this.segmentSize, data.length));
+            this.segments.add(segment);
+            this.current = segment;
+        }
+        return segment.append(data, expirationTime);
+    }
+
+    private void discard(final @Nullable Location location) {
+        if (location == null) return;
+        final Segment segment = location.segment;
+        if (segment.garbage.addAndGet(location.length) >= segment.size * COMPACTION_RATIO && segment != this.current)
+            scheduleCompaction(Long.MIN_VALUE);
+    }
+
+    private final class Segment {
+        private final @NotNull Path path;
+        private final @NotNull MappedByteBuffer buffer;
+        private final int size;
+        private final AtomicLong garbage;
+
+        Segment(final @NotNull Path path, final int size) {
+            MappedByteBuffer buffer = null;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                ExceptionUtils.throwException(e);
+            }
+            this.path = path;
+            this.buffer = Objects.requireNonNull(buffer);
+            this.size = size;
+            this.garbage = new AtomicLong();
+        }
+
+        int remaining() {
+            return this.buffer.remaining();
+        }
+
+        @NotNull Location append(final byte @NotNull [] data, final long expirationTime) {
+            final int offset = this.buffer.position();
+            this.buffer.put(data);
+            return new Location(this, offset, data.length, expirationTime);
+        }
+
+        boolean isGarbage() {
+            return this.garbage.get() >= this.size * COMPACTION_RATIO;
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(this.path);
+            } catch (IOException ignored) {
+                // The file might still be mapped on some platforms
+            }
+        }
+    }
+
+    private final class Location {
+        private final @NotNull Segment segment;
+        private final int offset;
+        private final int length;
+        private final long expirationTime;
+
+        Location(final @NotNull Segment segment, final int offset, final int length, final long expirationTime) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.expirationTime = expirationTime;
+        }
+
+        byte @NotNull [] read() {
+            final ByteBuffer buffer = this.segment.buffer.duplicate();
+            buffer.position(this.offset);
+            final byte[] data = new byte[this.length];
+            buffer.get(data);
+            return data;
+        }
+    }
+}
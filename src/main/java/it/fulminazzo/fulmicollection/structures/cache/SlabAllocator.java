@@ -0,0 +1,186 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An allocator of off-heap memory, used to store serialized values outside the Java heap.
+ * <p>
+ * Memory is reserved in direct {@link ByteBuffer} slabs, each one split in chunks of a single size class
+ * (a power of two between {@link #MINIMUM_CHUNK_SIZE} and the slab size).
+ * Freed chunks are recycled for the next allocations of the same size class.
+ * Data larger than a slab is stored in a dedicated buffer, released by the garbage collector once freed.
+ * <p>
+ * Every chunk has a version, incremented when it is freed: a {@link Handle} can only read its chunk
+ * as long as the version has not changed, so stale handles never return data written by someone else.
+ * Reads are optimistic and only acquire a lock if an allocation happened in the meantime.
+ */
+public class SlabAllocator {
+    /**
+     * The size in bytes of the smallest chunk.
+     */
+    public static final int MINIMUM_CHUNK_SIZE = 64;
+    private static final int MINIMUM_SHIFT = Integer.numberOfTrailingZeros(MINIMUM_CHUNK_SIZE);
+
+    private final StampedLock lock;
+    @Getter
+    private final int slabSize;
+    private final Deque<Chunk>[] freeChunks;
+    private final ByteBuffer[] currentSlabs;
+    @Getter
+    private long reservedBytes;
+    @Getter
+    private long usedBytes;
+
+    /**
+     * Instantiates a new Slab allocator.
+     *
+     * @param slabSize the size in bytes of every slab (a power of two not lower than {@link #MINIMUM_CHUNK_SIZE})
+     */
+    @SuppressWarnings("unchecked")
+    public SlabAllocator(final int slabSize) {
+        if (slabSize < MINIMUM_CHUNK_SIZE || Integer.bitCount(slabSize) != 1)
+            throw new IllegalArgumentException("Slab size must be a power of two not lower than " + MINIMUM_CHUNK_SIZE);
+        this.lock = new StampedLock();
+        this.slabSize = slabSize;
+        final int sizeClasses = Integer.numberOfTrailingZeros(slabSize) - MINIMUM_SHIFT + 1;
+        this.freeChunks = (Deque<Chunk>[]) new Deque<?>[sizeClasses];
+        for (int i = 0; i < sizeClasses; i++) this.freeChunks[i] = new ArrayDeque<>();
+        this.currentSlabs = new ByteBuffer[sizeClasses];
+    }
+
+    /**
+     * Copies the given data in off-heap memory.
+     *
+     * @param data the data
+     * @return the handle to read the data
+     */
+    public @NotNull Handle allocate(final byte @NotNull [] data) {
+        final Chunk chunk;
+        final long stamp = this.lock.writeLock();
+        try {
+            chunk = data.length > this.slabSize ? new Chunk(ByteBuffer.allocateDirect(data.length), -1) :
+                    nextChunk(sizeClassOf(data.length));
+            this.usedBytes += chunk.buffer.limit();
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+        // The chunk is not visible to readers until the handle is published
+        final ByteBuffer buffer = chunk.buffer.duplicate();
+        buffer.put(data);
+        return new Handle(this, chunk, chunk.version, data.length);
+    }
+
+    /**
+     * Frees the chunk of the given handle, so that it can be reused.
+     * If it was freed already, nothing happens.
+     *
+     * @param handle the handle
+     */
+    public void free(final @NotNull Handle handle) {
+        final long stamp = this.lock.writeLock();
+        try {
+            final Chunk chunk = handle.chunk;
+            if (chunk.version != handle.version) return;
+            chunk.version++;
+            this.usedBytes -= chunk.buffer.limit();
+            if (chunk.sizeClass >= 0) this.freeChunks[chunk.sizeClass].push(chunk);
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    private @NotNull Chunk nextChunk(final int sizeClass) {
+        Chunk chunk = this.freeChunks[sizeClass].poll();
+        if (chunk != null) return chunk;
+        final int chunkSize = MINIMUM_CHUNK_SIZE << sizeClass;
+        ByteBuffer slab = this.currentSlabs[sizeClass];
+        if (slab == null || slab.remaining() < chunkSize) {
+            slab = ByteBuffer.allocateDirect(this.slabSize);
+            this.reservedBytes += this.slabSize;
+            this.currentSlabs[sizeClass] = slab;
+        }
+        final ByteBuffer buffer = slab.slice();
+        buffer.limit(chunkSize);
+        slab.position(slab.position() + chunkSize);
+        return new Chunk(buffer, sizeClass);
+    }
+
+    private static int sizeClassOf(final int size) {
+        if (size <= MINIMUM_CHUNK_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MINIMUM_SHIFT;
+    }
+
+    /**
+     * A reference to data stored by a {@link SlabAllocator}.
+     */
+    public static final class Handle {
+        private final @NotNull SlabAllocator allocator;
+        private final @NotNull Chunk chunk;
+        private final int version;
+        @Getter
+        private final int length;
+
+        private Handle(final @NotNull SlabAllocator allocator, final @NotNull Chunk chunk,
+                       final int version, final int length) {
+            this.allocator = allocator;
+            this.chunk = chunk;
+            this.version = version;
+            this.length = length;
+        }
+
+        /**
+         * Copies the data back on the heap.
+         *
+         * @return the data (null if the handle has been freed)
+         */
+        public byte @Nullable [] read() {
+            final StampedLock lock = this.allocator.lock;
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                final byte[] data = copy();
+                if (lock.validate(stamp)) return data;
+            }
+            stamp = lock.readLock();
+            try {
+                return copy();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Checks if the handle has been freed.
+         *
+         * @return true if it has
+         */
+        public boolean isFreed() {
+            return this.chunk.version != this.version;
+        }
+
+        private byte[] copy() {
+            if (isFreed()) return null;
+            final byte[] data = new byte[this.length];
+            final ByteBuffer buffer = this.chunk.buffer.duplicate();
+            buffer.get(data);
+            return data;
+        }
+    }
+
+    private static final class Chunk {
+        private final @NotNull ByteBuffer buffer;
+        private final int sizeClass;
+        private volatile int version;
+
+        Chunk(final @NotNull ByteBuffer buffer, final int sizeClass) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe accumulator of the statistics of a {@link it.fulminazzo.fulmicollection.structures.CacheMap}.
+ * Every counter is a {@link LongAdder}, so concurrent updates do not contend.
+ */
+public class StatsCounter {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder putCount = new LongAdder();
+    private final LongAdder loadSuccessCount = new LongAdder();
+    private final LongAdder loadFailureCount = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder sweepCount = new LongAdder();
+    private final LongAdder totalSweepTime = new LongAdder();
+
+    /**
+     * Records the given number of cache hits.
+     *
+     * @param count the count
+     */
+    public void recordHits(final int count) {
+        this.hitCount.add(count);
+    }
+
+    /**
+     * Records the given number of cache misses.
+     *
+     * @param count the count
+     */
+    public void recordMisses(final int count) {
+        this.missCount.add(count);
+    }
+
+    /**
+     * Records a new value written in the cache.
+     */
+    public void recordPut() {
+        this.putCount.increment();
+    }
+
+    /**
+     * Records a successful load.
+     *
+     * @param loadTime the time in nanoseconds spent loading
+     */
+    public void recordLoadSuccess(final long loadTime) {
+        this.loadSuccessCount.increment();
+        this.totalLoadTime.add(loadTime);
+    }
+
+    /**
+     * Records a failed load.
+     *
+     * @param loadTime the time in nanoseconds spent loading
+     */
+    public void recordLoadFailure(final long loadTime) {
+        this.loadFailureCount.increment();
+        this.totalLoadTime.add(loadTime);
+    }
+
+    /**
+     * Records the removal of an expired value.
+     */
+    public void recordExpiration() {
+        this.expirationCount.increment();
+    }
+
+    /**
+     * Records the removal of a value to respect the maximum size.
+     */
+    public void recordEviction() {
+        this.evictionCount.increment();
+    }
+
+    /**
+     * Records a sweep for expired values.
+     *
+     * @param sweepTime the time in nanoseconds spent sweeping
+     */
+    public void recordSweep(final long sweepTime) {
+        this.sweepCount.increment();
+        this.totalSweepTime.add(sweepTime);
+    }
+
+    /**
+     * Returns a snapshot of the current statistics.
+     *
+     * @return the statistics
+     */
+    public @NotNull CacheStats snapshot() {
+        return new CacheStats(this.hitCount.sum(), this.missCount.sum(), this.putCount.sum(),
+                this.loadSuccessCount.sum(), this.loadFailureCount.sum(), this.totalLoadTime.sum(),
+                this.expirationCount.sum(), this.evictionCount.sum(),
+                this.sweepCount.sum(), this.totalSweepTime.sum());
+    }
+}
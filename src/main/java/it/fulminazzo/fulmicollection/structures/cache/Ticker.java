@@ -0,0 +1,49 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A source of time, expressed in milliseconds, used to compute expirations.
+ */
+@FunctionalInterface
+public interface Ticker {
+
+    /**
+     * Returns the current time in milliseconds.
+     *
+     * @return the time
+     */
+    long read();
+
+    /**
+     * Returns a {@link Ticker} based on {@link System#currentTimeMillis()}.
+     * Its values are affected by changes of the system clock.
+     *
+     * @return the ticker
+     */
+    static @NotNull Ticker system() {
+        return System::currentTimeMillis;
+    }
+
+    /**
+     * Returns a monotonic {@link Ticker} based on {@link System#nanoTime()}.
+     * Every read is precise, but it calls the underlying clock.
+     *
+     * @return the ticker
+     */
+    static @NotNull Ticker precise() {
+        return MonotonicTicker::precise;
+    }
+
+    /**
+     * Returns a monotonic {@link Ticker} that returns a cached time,
+     * updated every millisecond by a shared daemon thread.
+     * Every read is a single volatile load, but the time may lag behind
+     * by more than a millisecond if the thread is not scheduled in time.
+     *
+     * @return the ticker
+     */
+    static @NotNull Ticker cached() {
+        return MonotonicTicker.CACHED;
+    }
+}
@@ -0,0 +1,188 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel used to expire {@link Node}s in constant amortized time.
+ * <p>
+ * The wheel is composed of {@link #LEVELS} levels of {@link #BUCKETS} buckets each.
+ * Every bucket of the first level spans one millisecond, while every bucket of the following
+ * levels spans the whole previous level.
+ * When {@link #advance(long, Consumer)} is called, only the buckets that have elapsed since
+ * the last invocation are visited: their nodes are either expired or cascaded to a lower level.
+ * <p>
+ * This class is <b>not</b> thread-safe and should be guarded externally.
+ *
+ * @param <N> the type of the nodes
+ */
+@SuppressWarnings("unchecked")
+public class TimingWheel<N extends TimingWheel.Node> {
+    private static final int BITS = 6;
+    private static final int BUCKETS = 1 << BITS;
+    private static final int MASK = BUCKETS - 1;
+    private static final int LEVELS = 6;
+
+    private final Node[][] wheel;
+    private long currentTime;
+
+    /**
+     * Instantiates a new Timing wheel.
+     *
+     * @param currentTime the current time in milliseconds
+     */
+    public TimingWheel(final long currentTime) {
+        this.wheel = new Node[LEVELS][BUCKETS];
+        for (Node[] buckets : this.wheel)
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new Sentinel();
+        this.currentTime = currentTime;
+    }
+
+    /**
+     * Schedules the given node to be expired at {@link Node#getExpirationTime()}.
+     *
+     * @param node the node
+     */
+    public void schedule(final @NotNull N node) {
+        final long expirationTime = Math.max(node.getExpirationTime(), this.currentTime);
+        final int level = findLevel(expirationTime - this.currentTime);
+        final int index = (int) ((expirationTime >>> (BITS * level)) & MASK);
+        link(this.wheel[level][index], node);
+    }
+
+    /**
+     * Moves the given node to the bucket matching its current {@link Node#getExpirationTime()}.
+     *
+     * @param node the node
+     */
+    public void reschedule(final @NotNull N node) {
+        deschedule(node);
+        schedule(node);
+    }
+
+    /**
+     * Removes the given node from the wheel.
+     * If the node is not scheduled, nothing happens.
+     *
+     * @param node the node
+     */
+    public void deschedule(final @NotNull N node) {
+        final Node n = node;
+        if (n.next == null) return;
+        n.prev.next = n.next;
+        n.next.prev = n.prev;
+        n.prev = null;
+        n.next = null;
+    }
+
+    /**
+     * Advances the wheel to the given time.
+     * Every node that expired in the meantime is removed and passed to the given function.
+     *
+     * @param now     the current time in milliseconds
+     * @param expired the function to execute on every expired node
+     */
+    public void advance(final long now, final @NotNull Consumer<N> expired) {
+        final long previousTime = this.currentTime;
+        if (now <= previousTime) return;
+        this.currentTime = now;
+        for (int level = 0; level < LEVELS; level++) {
+            final int shift = BITS * level;
+            final long previousTicks = previousTime >>> shift;
+            final long currentTicks = now >>> shift;
+            if (currentTicks <= previousTicks) break;
+            expire(level, previousTicks, currentTicks - previousTicks, expired);
+        }
+    }
+
+    private void expire(final int level, final long previousTicks, final long delta,
+                        final @NotNull Consumer<N> expired) {
+        final Node[] buckets = this.wheel[level];
+        final int start = (int) (previousTicks & MASK);
+        final int end = start + (int) Math.min(delta + 1, BUCKETS);
+        for (int i = start; i < end; i++) {
+            final Node sentinel = buckets[i & MASK];
+            Node node = sentinel.next;
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            while (node != sentinel) {
+                final Node next = node.next;
+                node.prev = null;
+                node.next = null;
+                if (node.getExpirationTime() <= this.currentTime) expired.accept((N) node);
+                else schedule((N) node);
+                node = next;
+            }
+        }
+    }
+
+    /**
+     * Removes every node from the wheel.
+     */
+    public void clear() {
+        for (Node[] buckets : this.wheel)
+            for (Node sentinel : buckets) {
+                Node node = sentinel.next;
+                while (node != sentinel) {
+                    final Node next = node.next;
+                    node.prev = null;
+                    node.next = null;
+                    node = next;
+                }
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+            }
+    }
+
+    private static int findLevel(final long delta) {
+        for (int level = 1; level < LEVELS; level++)
+            if (delta < 1L << (BITS * level)) return level - 1;
+        return LEVELS - 1;
+    }
+
+    private static void link(final @NotNull Node sentinel, final @NotNull Node node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    /**
+     * A node that can be scheduled in a {@link TimingWheel}.
+     */
+    public static abstract class Node {
+        private Node prev;
+        private Node next;
+
+        /**
+         * Gets the time in milliseconds at which this node expires.
+         *
+         * @return the expiration time
+         */
+        public abstract long getExpirationTime();
+
+        /**
+         * Checks if this node is currently scheduled in a wheel.
+         *
+         * @return true if it is
+         */
+        public boolean isScheduled() {
+            return this.next != null;
+        }
+    }
+
+    private static final class Sentinel extends Node {
+
+        Sentinel() {
+            final Node node = this;
+            node.prev = node;
+            node.next = node;
+        }
+
+        @Override
+        public long getExpirationTime() {
+            return Long.MAX_VALUE;
+        }
+    }
+}
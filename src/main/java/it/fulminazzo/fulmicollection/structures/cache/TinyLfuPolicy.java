@@ -0,0 +1,319 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A size-bounded eviction policy based on W-TinyLFU.
+ * <p>
+ * New keys enter a small LRU admission window.
+ * When the window is full, its least recently used key becomes a candidate for the main region,
+ * a segmented LRU split in a probation and a protected segment.
+ * If the cache exceeds its maximum size, the candidate and the least recently used key of
+ * the probation segment are compared through a {@link FrequencySketch}: the least popular one is evicted.
+ * <p>
+ * Writes always acquire the internal lock, while reads are only recorded if the lock is free.
+ * <p>
+ * Every key can have a weight: in that case, the maximum bounds the total weight rather than
+ * the number of keys, and the window and the segments are sized by weight as well.
+ * <p>
+ * The {@link FrequencySketch} starts small and is enlarged as keys are added,
+ * so that a large maximum does not allocate memory for keys that never arrive.
+ *
+ * @param <K> the type of the keys
+ */
+public class TinyLfuPolicy<K> {
+    private static final double WINDOW_RATIO = 0.01;
+    private static final double PROTECTED_RATIO = 0.8;
+    private static final long INITIAL_SKETCH_CAPACITY = 64;
+
+    private final ReentrantLock lock;
+    private final Map<K, Node<K>> nodes;
+    private final FrequencySketch<K> sketch;
+    private final long maximumWeight;
+    private final long maximumWindowWeight;
+    private final long maximumProtectedWeight;
+    private final boolean weighted;
+
+    private final Node<K> window;
+    private final Node<K> probation;
+    private final Node<K> protectedSegment;
+    private long windowWeight;
+    private long protectedWeight;
+    private long totalWeight;
+
+    /**
+     * Instantiates a new Tiny lfu policy.
+     *
+     * @param maximumSize the maximum number of keys
+     */
+    public TinyLfuPolicy(final long maximumSize) {
+        this(maximumSize, false);
+    }
+
+    /**
+     * Instantiates a new Tiny lfu policy.
+     *
+     * @param maximumWeight the maximum total weight of the keys
+     * @param weighted      if true, keys have their own weights, so the number of keys
+     *                      (and the size of the {@link FrequencySketch}) is not bounded by the maximum
+     */
+    public TinyLfuPolicy(final long maximumWeight, final boolean weighted) {
+        if (maximumWeight < 0) throw new IllegalArgumentException("Maximum weight cannot be negative");
+        this.lock = new ReentrantLock();
+        this.nodes = new HashMap<>();
+        this.sketch = new FrequencySketch<>(Math.min(maximumWeight, INITIAL_SKETCH_CAPACITY));
+        this.maximumWeight = maximumWeight;
+        this.maximumWindowWeight = Math.max(1, (long) (maximumWeight * WINDOW_RATIO));
+        this.maximumProtectedWeight = (long) ((maximumWeight - this.maximumWindowWeight) * PROTECTED_RATIO);
+        this.weighted = weighted;
+        this.window = new Node<>(null, null);
+        this.probation = new Node<>(null, null);
+        this.protectedSegment = new Node<>(null, null);
+    }
+
+    /**
+     * Records a read of the given key.
+     * If another thread is currently updating the policy, the read is discarded.
+     *
+     * @param key the key
+     */
+    public void recordAccess(final @NotNull K key) {
+        if (!this.lock.tryLock()) return;
+        try {
+            Node<K> node = this.nodes.get(key);
+            if (node != null) onAccess(node);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Records a write of the given key.
+     *
+     * @param key the key
+     * @return the keys that have been evicted to respect the maximum size
+     */
+    public @NotNull List<K> recordWrite(final @NotNull K key) {
+        return recordWrite(key, 1);
+    }
+
+    /**
+     * Records a write of the given key with the given weight.
+     * If the key is already present, its weight is updated.
+     * If the weight exceeds the maximum, the key itself is evicted.
+     *
+     * @param key    the key
+     * @param weight the weight
+     * @return the keys that have been evicted to respect the maximum weight
+     */
+    public @NotNull List<K> recordWrite(final @NotNull K key, final long weight) {
+        if (weight < 0) throw new IllegalArgumentException("Weight cannot be negative");
+        this.lock.lock();
+        try {
+            Node<K> node = this.nodes.get(key);
+            if (weight > this.maximumWeight) {
+                if (node != null) {
+                    this.nodes.remove(key);
+                    discard(node);
+                }
+                return Collections.singletonList(key);
+            }
+            if (node != null) {
+                final long delta = weight - node.weight;
+                node.weight = weight;
+                this.totalWeight += delta;
+                if (node.queue == this.window) this.windowWeight += delta;
+                else if (node.queue == this.protectedSegment) this.protectedWeight += delta;
+                onAccess(node);
+                return delta > 0 ? evict() : Collections.emptyList();
+            }
+            node = new Node<>(key, this.window);
+            node.weight = weight;
+            this.nodes.put(key, node);
+            this.sketch.ensureCapacity(this.weighted ? this.nodes.size() : Math.min(this.nodes.size(), this.maximumWeight));
+            this.sketch.increment(key);
+            link(this.window, node);
+            this.windowWeight += weight;
+            this.totalWeight += weight;
+            return evict();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the given key from the policy.
+     *
+     * @param key the key
+     */
+    public void remove(final @NotNull Object key) {
+        this.lock.lock();
+        try {
+            Node<K> node = this.nodes.remove(key);
+            if (node != null) discard(node);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the given key from the policy, if the given condition holds.
+     * The condition is tested while holding the internal lock, so that no write of the key
+     * can be recorded in the meantime.
+     *
+     * @param key       the key
+     * @param condition the condition
+     */
+    public void remove(final @NotNull Object key, final @NotNull Predicate<Object> condition) {
+        this.lock.lock();
+        try {
+            if (!condition.test(key)) return;
+            Node<K> node = this.nodes.remove(key);
+            if (node != null) discard(node);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes every key from the policy.
+     */
+    public void clear() {
+        this.lock.lock();
+        try {
+            this.nodes.clear();
+            for (Node<K> sentinel : Arrays.asList(this.window, this.probation, this.protectedSegment)) {
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+            }
+            this.windowWeight = 0;
+            this.protectedWeight = 0;
+            this.totalWeight = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of keys tracked by the policy.
+     *
+     * @return the size
+     */
+    public int size() {
+        this.lock.lock();
+        try {
+            return this.nodes.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the total weight of the keys tracked by the policy.
+     *
+     * @return the weighted size
+     */
+    public long weightedSize() {
+        this.lock.lock();
+        try {
+            return this.totalWeight;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void onAccess(final @NotNull Node<K> node) {
+        this.sketch.increment(node.key);
+        unlink(node);
+        if (node.queue != this.probation) {
+            link(node.queue, node);
+            return;
+        }
+        node.queue = this.protectedSegment;
+        link(this.protectedSegment, node);
+        this.protectedWeight += node.weight;
+        while (this.protectedWeight > this.maximumProtectedWeight) {
+            Node<K> demoted = this.protectedSegment.next;
+            unlink(demoted);
+            demoted.queue = this.probation;
+            link(this.probation, demoted);
+            this.protectedWeight -= demoted.weight;
+        }
+    }
+
+    private @NotNull List<K> evict() {
+        // The keys moved from the window are contiguous at the end of the probation segment
+        Node<K> candidate = null;
+        int candidates = 0;
+        while (this.windowWeight > this.maximumWindowWeight) {
+            Node<K> node = this.window.next;
+            unlink(node);
+            this.windowWeight -= node.weight;
+            node.queue = this.probation;
+            link(this.probation, node);
+            if (candidate == null) candidate = node;
+            candidates++;
+        }
+
+        List<K> evicted = null;
+        while (this.totalWeight > this.maximumWeight) {
+            Node<K> victim = this.probation.next;
+            if (victim == this.probation) victim = this.protectedSegment.next;
+            if (victim == this.protectedSegment) victim = this.window.next;
+            if (candidates > 0 && candidate != victim && candidate.queue == this.probation &&
+                    this.sketch.frequency(candidate.key) <= this.sketch.frequency(victim.key)) {
+                victim = candidate;
+                candidate = candidate.next;
+                candidates--;
+            } else if (victim == candidate) {
+                candidate = candidate.next;
+                candidates--;
+            }
+            this.nodes.remove(victim.key);
+            discard(victim);
+            if (evicted == null) evicted = new LinkedList<>();
+            evicted.add(victim.key);
+        }
+        return evicted == null ? Collections.emptyList() : evicted;
+    }
+
+    private void discard(final @NotNull Node<K> node) {
+        unlink(node);
+        this.totalWeight -= node.weight;
+        if (node.queue == this.window) this.windowWeight -= node.weight;
+        else if (node.queue == this.protectedSegment) this.protectedWeight -= node.weight;
+    }
+
+    private static <K> void link(final @NotNull Node<K> sentinel, final @NotNull Node<K> node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static <K> void unlink(final @NotNull Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static final class Node<K> {
+        private final K key;
+        private Node<K> queue;
+        private Node<K> prev;
+        private Node<K> next;
+        private long weight;
+
+        Node(final K key, final Node<K> queue) {
+            this.key = key;
+            this.queue = queue == null ? this : queue;
+            this.prev = this;
+            this.next = this;
+        }
+    }
+}
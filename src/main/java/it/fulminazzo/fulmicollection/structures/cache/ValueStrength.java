@@ -0,0 +1,21 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+/**
+ * Identifies how a {@link it.fulminazzo.fulmicollection.structures.CacheMap} references its values.
+ */
+public enum ValueStrength {
+    /**
+     * Values are referenced directly and never reclaimed by the garbage collector.
+     */
+    STRONG,
+    /**
+     * Values are referenced through {@link java.lang.ref.SoftReference}s,
+     * so that the garbage collector can reclaim them when memory runs low.
+     */
+    SOFT,
+    /**
+     * Values are referenced through {@link java.lang.ref.WeakReference}s,
+     * so that the garbage collector can reclaim them as soon as they are no longer used elsewhere.
+     */
+    WEAK
+}
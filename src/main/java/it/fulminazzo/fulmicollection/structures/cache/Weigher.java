@@ -0,0 +1,24 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A function that computes the weight of a key-value pair of a
+ * {@link it.fulminazzo.fulmicollection.structures.CacheMap}, such as its approximate size in bytes.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    /**
+     * Computes the weight of the given key-value pair.
+     * Called every time the pair is written.
+     *
+     * @param key   the key
+     * @param value the value
+     * @return the weight (cannot be negative)
+     */
+    long weigh(@NotNull K key, V value);
+}
@@ -1,22 +1,904 @@
 package it.fulminazzo.fulmicollection.structures;
 
+import it.fulminazzo.fulmicollection.structures.cache.CacheStats;
+import it.fulminazzo.fulmicollection.structures.cache.ExpirationMode;
+import it.fulminazzo.fulmicollection.structures.cache.InvalidationBus;
+import it.fulminazzo.fulmicollection.structures.cache.MaintenanceMode;
+import it.fulminazzo.fulmicollection.structures.cache.RemovalCause;
+import it.fulminazzo.fulmicollection.structures.cache.Ticker;
+import it.fulminazzo.fulmicollection.structures.cache.ValueStrength;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
-import java.util.Map;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class CacheMapTest {
 
     @Test
-    void testExpired() throws InterruptedException {
+    void testExpired() {
         final String key = "Hello";
-        Map<String, Integer> map = new CacheMap<>(10, 50);
+        AtomicLong time = new AtomicLong();
+        Map<String, Integer> map = CacheMap.builder().period(10).expirationTime(50).ticker(time::get).build();
         map.put(key, 10);
         assertNotNull(map.get(key), "Cache should have value after put");
-        Thread.sleep(20);
+        time.set(20);
         assertNotNull(map.get(key), "Cache should have value after check");
-        Thread.sleep(30);
+        time.set(50);
         assertNull(map.get(key), "Cache should not have value after expire");
     }
-}
\ No newline at end of file
+
+    @Test
+    void testClearExpiredOnlyRemovesExpired() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder().expirationTime(200).ticker(time::get).build();
+        map.put("first", 1);
+        time.set(120);
+        map.put("second", 2);
+        time.set(240);
+        map.clearExpired();
+        assertFalse(map.containsKey("first"), "Expired key should be removed");
+        assertTrue(map.containsKey("second"), "Non expired key should not be removed");
+    }
+
+    @Test
+    void testOverwriteReschedules() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder().expirationTime(50).ticker(time::get).build();
+        map.put("key", 1);
+        time.set(30);
+        map.put("key", 2);
+        time.set(60);
+        map.clearExpired();
+        assertEquals(2, map.get("key"), "Overwritten key should use the new timestamp");
+    }
+
+    @Test
+    void testMaximumSize() {
+        CacheMap<Integer, Integer> map = new CacheMap<>(Long.MAX_VALUE, Long.MAX_VALUE, 10);
+        for (int i = 0; i < 100; i++) map.put(i, i);
+        assertEquals(10, map.size(), "Map should not exceed its maximum size");
+    }
+
+    @Test
+    void testInvalidMaximumSize() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> new CacheMap<>(1, 1, -2));
+    }
+
+    @Test
+    void testSamplingExpiresGradually() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<Integer, Integer> map = CacheMap.builder()
+                .expirationTime(20)
+                .expirationMode(ExpirationMode.SAMPLING)
+                .sampleSize(10)
+                .ticker(time::get)
+                .build();
+        for (int i = 0; i < 1000; i++) map.put(i, i);
+        time.set(30);
+        map.put(-1, -1);
+        int size = map.size();
+        assertTrue(size < 1001, "Sampling should remove some expired values");
+        assertTrue(size > 1, "Sampling should not remove every expired value at once");
+        for (int i = 0; i < 1000 && map.size() > 1; i++) ;
+        assertEquals(1, map.size(), "Sampling should eventually remove every expired value");
+        assertEquals(-1, map.get(-1));
+    }
+
+    @Test
+    void testSingleSweeper() throws InterruptedException {
+        AtomicLong time = new AtomicLong();
+        CacheMap<Integer, Integer> map = CacheMap.builder()
+                .period(100)
+                .expirationTime(50)
+                .concurrencyLevel(8)
+                .ticker(time::get)
+                .recordStats()
+                .build();
+        for (int i = 0; i < 1000; i++) map.put(i, i);
+        time.set(100);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) threads.add(new Thread(map::size));
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        assertEquals(1, map.stats().getSweepCount(), "Only one thread should have swept");
+        assertEquals(875, map.size(), "Only one wheel should have been swept");
+        for (int i = 1; i < 8; i++) {
+            time.addAndGet(100 / 8);
+            map.size();
+        }
+        assertEquals(8, map.stats().getSweepCount());
+        assertEquals(0, map.size(), "Every wheel should be swept once per period");
+        assertEquals(1000, map.stats().getExpirationCount());
+    }
+
+    @Test
+    void testPeriodShorterThanWheels() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<Integer, Integer> map = CacheMap.builder()
+                .period(4)
+                .expirationTime(50)
+                .concurrencyLevel(8)
+                .ticker(time::get)
+                .recordStats()
+                .build();
+        for (int i = 0; i < 1000; i++) map.put(i, i);
+        time.set(100);
+        for (int i = 0; i < 8; i++) map.size();
+        assertEquals(1, map.stats().getSweepCount(), "Wheels should not be swept on every operation");
+        for (int i = 1; i < 8; i++) {
+            time.incrementAndGet();
+            map.size();
+        }
+        assertEquals(8, map.stats().getSweepCount());
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void testInvalidConcurrencyLevel() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder().concurrencyLevel(0).build());
+    }
+
+    @Test
+    void testConcurrentMapOperations() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .ticker(time::get)
+                .build();
+        assertNull(map.putIfAbsent("key", 1));
+        assertEquals(1, map.putIfAbsent("key", 2));
+        assertFalse(map.replace("key", 2, 3));
+        assertTrue(map.replace("key", 1, 3));
+        assertEquals(3, map.replace("key", 4));
+        assertNull(map.replace("missing", 1));
+        assertFalse(map.containsKey("missing"));
+        assertEquals(5, map.merge("key", 1, Integer::sum));
+        assertEquals(1, map.merge("other", 1, Integer::sum));
+        assertEquals(5, map.computeIfAbsent("key", k -> 0));
+        assertEquals(10, map.computeIfPresent("key", (k, v) -> v * 2));
+        assertNull(map.computeIfPresent("missing", (k, v) -> 1));
+        assertNull(map.compute("other", (k, v) -> null));
+        assertFalse(map.containsKey("other"));
+        assertFalse(map.remove("key", 1));
+        assertTrue(map.remove("key", 10));
+        assertTrue(map.isEmpty());
+        assertThrowsExactly(NullPointerException.class, () -> map.putIfAbsent("key", null));
+    }
+
+    @Test
+    void testConcurrentMapOperationsIgnoreExpired() {
+        AtomicLong time = new AtomicLong();
+        List<RemovalCause> causes = new ArrayList<>();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .ticker(time::get)
+                .executor(Runnable::run)
+                .removalListener((String k, Integer v, RemovalCause c) -> causes.add(c))
+                .build();
+        map.put("key", 1);
+        time.set(100);
+        assertNull(map.putIfAbsent("key", 2), "Expired value should be treated as absent");
+        assertEquals(2, map.get("key"));
+        time.set(200);
+        assertEquals(1, map.computeIfAbsent("key", k -> 1));
+        time.set(300);
+        assertNull(map.replace("key", 3));
+        assertFalse(map.containsKey("key"));
+        assertEquals(Arrays.asList(RemovalCause.EXPIRED, RemovalCause.EXPIRED, RemovalCause.EXPIRED), causes);
+        time.set(350);
+        assertEquals(1, map.computeIfAbsent("key", k -> 1));
+        time.set(449);
+        assertEquals(1, map.get("key"), "Computed value should use the expiration time");
+        time.set(450);
+        assertNull(map.get("key"));
+    }
+
+    @Test
+    void testComputeIfAbsentIsAtomic() throws InterruptedException {
+        CacheMap<Integer, Integer> map = new CacheMap<>();
+        AtomicInteger calls = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            threads.add(new Thread(() -> {
+                for (int k = 0; k < 1000; k++) {
+                    map.computeIfAbsent(k, key -> calls.incrementAndGet());
+                    map.merge(-1, 1, Integer::sum);
+                }
+            }));
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        assertEquals(1000, calls.get(), "Every value should be computed only once");
+        assertEquals(8000, map.get(-1));
+    }
+
+    @Test
+    void testComputeFailureLeavesMapUnchanged() {
+        CacheMap<String, Integer> map = new CacheMap<>();
+        assertThrowsExactly(IllegalStateException.class, () -> map.computeIfAbsent("key", k -> {
+            throw new IllegalStateException();
+        }));
+        assertTrue(map.isEmpty());
+        assertNull(map.get("key"));
+    }
+
+    @Test
+    void testInvalidationBus() throws IOException, InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (InvalidationBus firstBus = new InvalidationBus(address); InvalidationBus secondBus = new InvalidationBus(address)) {
+            for (InvalidationBus bus : Arrays.asList(firstBus, secondBus)) {
+                bus.addPeer(firstBus.getAddress());
+                bus.addPeer(secondBus.getAddress());
+            }
+            CacheMap<String, Integer> first = CacheMap.builder().invalidationBus(firstBus, "map").build();
+            CacheMap<String, Integer> second = CacheMap.builder().invalidationBus(secondBus, "map").build();
+            second.put("key", 1);
+            second.put("other", 2);
+            // Wait for the invalidations of the second map to reach the first one
+            Thread.sleep(200);
+            first.put("key", 3);
+            first.merge("other", 1, Integer::sum);
+            for (int i = 0; i < 500 && !second.isEmpty(); i++) Thread.sleep(10);
+            assertTrue(second.isEmpty(), "Written keys should be invalidated in the other map");
+            Thread.sleep(200);
+            assertEquals(3, first.get("key"), "Received invalidations should not be published again");
+            assertEquals(1, first.get("other"));
+            second.put("third", 3);
+            first.clear();
+            for (int i = 0; i < 500 && !second.isEmpty(); i++) Thread.sleep(10);
+            assertTrue(second.isEmpty(), "Clearing should clear the other map");
+        }
+    }
+
+    @Test
+    void testInvalidationBusDoesNotRetainMap() throws IOException, InterruptedException {
+        try (InvalidationBus bus = new InvalidationBus(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            WeakReference<CacheMap<String, Integer>> reference =
+                    new WeakReference<>(CacheMap.builder().invalidationBus(bus, "map").build());
+            for (int i = 0; i < 100 && reference.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            assertNull(reference.get(), "Subscribed maps should still be collected");
+        }
+    }
+
+    @Test
+    void testInvalidSampleSettings() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder().sampleSize(0).build());
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder().sampleThreshold(2).build());
+    }
+
+    @Test
+    void testBackgroundMaintenance() throws InterruptedException {
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .period(10)
+                .expirationTime(20)
+                .maintenanceMode(MaintenanceMode.PLATFORM_THREAD)
+                .build();
+        map.put("key", 1);
+        Thread.sleep(100);
+        assertTrue(map.isEmpty(), "Background thread should have removed the expired value");
+    }
+
+    @Test
+    void testReadsIgnoreExpiredValues() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder().expirationTime(20).ticker(time::get).build();
+        map.put("first", 1);
+        map.put("second", 2);
+        map.put("third", 3);
+        time.set(30);
+        assertNull(map.get("first"), "Expired value should not be returned before a sweep");
+        assertFalse(map.containsKey("second"), "Expired key should not be contained before a sweep");
+        assertFalse(map.containsValue(3), "Expired value should not be contained before a sweep");
+        assertTrue(map.values().isEmpty(), "Expired values should not be iterated");
+        assertTrue(map.entrySet().isEmpty(), "Expired entries should not be iterated");
+        assertTrue(map.isEmpty(), "Expired values should have been removed by reads");
+    }
+
+    @Test
+    void testPutReturnsPreviousValue() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder().expirationTime(20).ticker(time::get).build();
+        assertNull(map.put("key", 1));
+        assertEquals(1, map.put("key", 2));
+        time.set(30);
+        assertNull(map.put("key", 3), "Expired value should not be returned on overwrite");
+        assertEquals(3, map.get("key"));
+        assertEquals(3, map.remove("key"));
+        assertNull(map.remove("key"));
+    }
+
+    @Test
+    void testConcurrentWrites() throws InterruptedException {
+        CacheMap<Integer, Integer> map = new CacheMap<>(Long.MAX_VALUE, Long.MAX_VALUE);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    int key = (i * 31 + seed) % 64;
+                    if (i % 3 == 0) map.remove(key);
+                    else map.put(key, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) thread.join();
+        for (int key = 0; key < 64; key++) map.put(key, key);
+        assertEquals(64, map.size());
+        for (int key = 0; key < 64; key++) assertEquals(key, map.get(key));
+    }
+
+    @Test
+    void testViewsAreLive() {
+        CacheMap<String, Integer> map = new CacheMap<>(Long.MAX_VALUE, Long.MAX_VALUE);
+        Set<String> keys = map.keySet();
+        Collection<Integer> values = map.values();
+        Set<Map.Entry<String, Integer>> entries = map.entrySet();
+        map.put("first", 1);
+        map.put("second", 2);
+        assertEquals(new HashSet<>(Arrays.asList("first", "second")), new HashSet<>(keys));
+        assertTrue(values.contains(2));
+        assertEquals(2, entries.size());
+    }
+
+    @Test
+    void testViewsWriteThrough() {
+        CacheMap<String, Integer> map = new CacheMap<>(Long.MAX_VALUE, Long.MAX_VALUE);
+        map.put("first", 1);
+        map.put("second", 2);
+        map.put("third", 3);
+        map.keySet().remove("first");
+        assertFalse(map.containsKey("first"));
+        map.values().removeIf(v -> v == 2);
+        assertFalse(map.containsKey("second"));
+        for (Map.Entry<String, Integer> entry : map.entrySet()) entry.setValue(10);
+        assertEquals(10, map.get("third"));
+        assertTrue(map.entrySet().remove(new AbstractMap.SimpleEntry<>("third", 10)));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void testEqualsFollowsMapContract() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> first = CacheMap.builder().expirationTime(100).ticker(time::get).build();
+        CacheMap<String, Integer> second = new CacheMap<>();
+        first.put("key", 1);
+        first.put("other", 2);
+        second.put("other", 2);
+        second.put("key", 1);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("key", 1);
+        expected.put("other", 2);
+        assertEquals(expected, first);
+        assertEquals(first, expected);
+        assertEquals(expected.hashCode(), first.hashCode());
+        assertEquals("{key=1}", new CacheMap<>(Collections.singletonMap("key", 1)).toString());
+        first.put("expiring", 3, 10);
+        time.set(10);
+        assertEquals(second, first, "Expired pairs should not be compared");
+        second.put("key", 3);
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void testViewsDoNotRecordReads() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .expireAfterAccess()
+                .ticker(time::get)
+                .recordStats()
+                .build();
+        map.put("key", 1);
+        time.set(50);
+        assertTrue(map.entrySet().contains(new AbstractMap.SimpleEntry<>("key", 1)));
+        assertFalse(map.entrySet().contains(new AbstractMap.SimpleEntry<>("other", 1)));
+        assertEquals(0, map.stats().getHitCount());
+        assertEquals(0, map.stats().getMissCount());
+        time.set(100);
+        assertFalse(map.containsKey("key"), "Checking an entry should not extend its expiration");
+    }
+
+    @Test
+    void testKeySetRemove() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .ticker(time::get)
+                .build();
+        map.put("key", 1);
+        map.put("expired", 2, 10);
+        assertFalse(map.keySet().remove("missing"));
+        time.set(20);
+        assertFalse(map.keySet().remove("expired"));
+        assertTrue(map.keySet().remove("key"));
+        assertFalse(map.keySet().remove("key"));
+    }
+
+    @Test
+    void testViewsSkipExpiredValues() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder().expirationTime(20).ticker(time::get).build();
+        map.put("key", 1);
+        time.set(30);
+        assertFalse(map.keySet().iterator().hasNext(), "Expired keys should not be iterated");
+        assertFalse(map.keySet().contains("key"));
+    }
+
+    @Test
+    void testCustomTicker() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .ticker(time::get)
+                .build();
+        map.put("key", 1);
+        time.set(99);
+        assertEquals(1, map.get("key"));
+        time.set(100);
+        assertNull(map.get("key"), "Value should expire according to the ticker");
+    }
+
+    @Test
+    void testGetAll() {
+        CacheMap<Integer, Integer> map = new CacheMap<>();
+        map.put(1, 1);
+        map.put(2, 2);
+        Map<Integer, Integer> result = map.getAll(Arrays.asList(1, 2, 3));
+        assertEquals(2, result.size());
+        assertEquals(2, result.get(2));
+        assertFalse(result.containsKey(3));
+    }
+
+    @Test
+    void testStats() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<Integer, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .maximumSize(2)
+                .ticker(time::get)
+                .recordStats()
+                .build();
+        map.put(1, 1);
+        map.put(2, 2);
+        map.put(3, 3);
+        map.get(3);
+        map.get(4);
+        map.getAll(Arrays.asList(3, 5));
+        time.set(100);
+        map.clearExpired();
+
+        CacheStats stats = map.stats();
+        assertEquals(2, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(3, stats.getPutCount());
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(2, stats.getExpirationCount());
+        assertEquals(1, stats.getSweepCount());
+    }
+
+    @Test
+    void testStatsDisabledByDefault() {
+        CacheMap<Integer, Integer> map = new CacheMap<>();
+        map.put(1, 1);
+        map.get(1);
+        assertEquals(CacheStats.empty(), map.stats());
+    }
+
+    @Test
+    void testRemovalListener() {
+        AtomicLong time = new AtomicLong();
+        List<String> removals = new ArrayList<>();
+        CacheMap<Integer, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .maximumSize(3)
+                .ticker(time::get)
+                .executor(Runnable::run)
+                .removalListener((Integer k, Integer v, RemovalCause c) -> removals.add(k + "=" + v + ":" + c))
+                .build();
+        map.put(1, 1);
+        map.put(1, 2);
+        map.put(2, 2);
+        map.remove(2);
+        map.put(3, 3);
+        map.put(4, 4);
+        map.put(5, 5);
+        time.set(100);
+        map.clearExpired();
+        map.put(6, 6);
+        map.clear();
+
+        assertEquals(Arrays.asList("1=1:REPLACED", "2=2:EXPLICIT"), removals.subList(0, 2));
+        assertEquals(1, removals.stream().filter(s -> s.endsWith(":SIZE")).count());
+        assertEquals(3, removals.stream().filter(s -> s.endsWith(":EXPIRED")).count());
+        assertEquals("6=6:EXPLICIT", removals.get(removals.size() - 1));
+    }
+
+    @Test
+    void testRemovalListenerIsBatched() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+        CacheMap<Integer, Integer> map = CacheMap.builder()
+                .executor(tasks::add)
+                .removalListener((Integer k, Integer v, RemovalCause c) -> removed.add(k))
+                .build();
+        for (int i = 0; i < 100; i++) map.put(i, i);
+        map.clear();
+        assertEquals(1, tasks.size(), "Removals should be delivered by a single task");
+        assertTrue(removed.isEmpty());
+        tasks.get(0).run();
+        assertEquals(100, removed.size());
+    }
+
+    @Test
+    void testExpireAfterAccess() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .period(0)
+                .ticker(time::get)
+                .expireAfterAccess()
+                .build();
+        map.put("read", 1);
+        map.put("idle", 2);
+        for (int i = 1; i <= 5; i++) {
+            time.set(i * 60L);
+            assertEquals(1, map.get("read"), "Reads should extend the expiration");
+        }
+        assertFalse(map.containsKey("idle"));
+        time.set(5 * 60L + 99);
+        map.clearExpired();
+        assertEquals(1, map.size(), "Read value should be rescheduled, not removed");
+        time.set(5 * 60L + 100);
+        map.clearExpired();
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void testConcurrentReadsDoNotExtendPastShorterWrite() throws Exception {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(1000)
+                .ticker(time::get)
+                .expireAfterAccess()
+                .build();
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        Thread[] readers = new Thread[2];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 200; i++) {
+                        barrier.await();
+                        for (int j = 0; j < 100; j++) map.get("key");
+                        barrier.await();
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            readers[t].start();
+        }
+        for (int i = 0; i < 200; i++) {
+            time.set(i * 10_000L);
+            map.put("key", 1, 1000);
+            barrier.await();
+            map.put("key", 2, 10);
+            barrier.await();
+            time.addAndGet(500);
+            assertNull(map.get("key"), "Reads should not extend past the time to live of the last write");
+        }
+        for (Thread reader : readers) reader.join();
+    }
+
+    @Test
+    void testExpireAfterWriteIgnoresReads() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .ticker(time::get)
+                .build();
+        map.put("key", 1);
+        time.set(60);
+        assertEquals(1, map.get("key"));
+        time.set(100);
+        assertNull(map.get("key"));
+    }
+
+    @Test
+    void testPutWithTtl() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(100)
+                .period(0)
+                .ticker(time::get)
+                .build();
+        map.put("short", 1, 10);
+        map.put("default", 2);
+        map.put("long", 3, 10_000);
+        time.set(10);
+        assertEquals(2, map.size());
+        time.set(100);
+        assertEquals(1, map.size());
+        time.set(9_999);
+        assertEquals(3, map.get("long"));
+        time.set(10_000);
+        assertTrue(map.isEmpty());
+        assertThrowsExactly(IllegalArgumentException.class, () -> map.put("key", 1, -1));
+    }
+
+    @Test
+    void testExpiry() {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder()
+                .period(0)
+                .ticker(time::get)
+                .expiry((String k, Integer v) -> v)
+                .build();
+        for (int i = 1; i <= 1000; i++) map.put("key" + i, i);
+        time.set(500);
+        assertEquals(500, map.size());
+        assertNull(map.get("key500"));
+        assertEquals(501, map.get("key501"));
+        map.put("key1", 1);
+        time.set(501);
+        assertNull(map.get("key1"), "Overwritten value should use the new time to live");
+    }
+
+    @Test
+    void testMaximumWeight() {
+        CacheMap<Integer, String> map = CacheMap.builder()
+                .maximumWeight(1000)
+                .weigher((Integer k, String v) -> v.length())
+                .build();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, value.toString());
+            value.append('a');
+        }
+        int weight = map.values().stream().mapToInt(String::length).sum();
+        assertTrue(weight <= 1000, "Total weight " + weight + " should not exceed the maximum");
+
+        map.put(-1, "");
+        char[] overweight = new char[1001];
+        Arrays.fill(overweight, 'a');
+        map.put(-1, new String(overweight));
+        assertTrue(map.size() > 1, "Other values should not be evicted");
+        assertFalse(map.containsKey(-1), "Overweight value should be evicted");
+    }
+
+    @Test
+    void testInvalidMaximumWeight() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder().maximumWeight(10).build());
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder()
+                .maximumWeight(10).maximumSize(10).weigher((Object k, Object v) -> 1).build());
+    }
+
+    @Test
+    void testWeakValuesAreCollected() throws InterruptedException {
+        List<RemovalCause> causes = new ArrayList<>();
+        CacheMap<String, Object> map = CacheMap.builder()
+                .valueStrength(ValueStrength.WEAK)
+                .executor(Runnable::run)
+                .removalListener((String k, Object v, RemovalCause c) -> causes.add(c))
+                .build();
+        Object strong = new Object();
+        map.put("strong", strong);
+        map.put("weak", new Object());
+        for (int i = 0; i < 100 && causes.isEmpty(); i++) {
+            System.gc();
+            Thread.sleep(10);
+            map.clearExpired();
+        }
+        assertEquals(Collections.singletonList(RemovalCause.COLLECTED), causes);
+        assertFalse(map.containsKey("weak"));
+        assertSame(strong, map.get("strong"));
+    }
+
+    @Test
+    void testSoftValues() {
+        CacheMap<String, Object> map = CacheMap.builder()
+                .valueStrength(ValueStrength.SOFT)
+                .build();
+        map.put("key", "value");
+        assertEquals("value", map.get("key"));
+        assertTrue(map.containsValue("value"));
+        assertEquals("value", map.put("key", "other"));
+        assertEquals("other", map.remove("key"));
+    }
+
+    @Test
+    void testOffHeap() {
+        AtomicLong time = new AtomicLong();
+        List<String> removed = new ArrayList<>();
+        CacheMap<Integer, String> map = CacheMap.builder()
+                .offHeap(1024)
+                .expirationTime(100)
+                .ticker(time::get)
+                .executor(Runnable::run)
+                .removalListener((Integer k, String v, RemovalCause c) -> removed.add(v))
+                .build();
+        for (int i = 0; i < 100; i++) map.put(i, "value" + i);
+        assertEquals("value42", map.get(42));
+        assertEquals("value42", map.put(42, "other"));
+        assertEquals("other", map.get(42));
+        assertEquals("value1", map.remove(1));
+        assertTrue(map.containsValue("value2"));
+        time.set(100);
+        map.clearExpired();
+        assertEquals(101, removed.size(), "Removed values should be deserialized for the listener");
+        assertTrue(removed.contains("value99"));
+    }
+
+    @Test
+    void testOffHeapConcurrentOverwriteAndRead() throws InterruptedException {
+        CacheMap<String, String> map = CacheMap.builder().offHeap(1024).build();
+        map.put("key", "value");
+        AtomicInteger misses = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) if (map.get("key") == null) misses.incrementAndGet();
+            });
+            readers[t].start();
+        }
+        for (int i = 0; i < 20_000; i++) map.put("key", "value" + i);
+        for (Thread reader : readers) reader.join();
+        assertEquals(0, misses.get(), "Overwritten values should never be read as absent");
+    }
+
+    @Test
+    void testOffHeapRequiresSerializable() {
+        CacheMap<String, Object> map = CacheMap.builder().offHeap().build();
+        assertThrows(RuntimeException.class, () -> map.put("key", new Object()));
+        assertFalse(map.containsKey("key"));
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder()
+                .offHeap().valueStrength(ValueStrength.WEAK).build());
+    }
+
+    @Test
+    void testDiskOverflow(@TempDir Path directory) {
+        List<RemovalCause> causes = new ArrayList<>();
+        CacheMap<Integer, String> map = CacheMap.builder()
+                .maximumSize(10)
+                .diskOverflow(directory, 1024)
+                .executor(Runnable::run)
+                .removalListener((Integer k, String v, RemovalCause c) -> causes.add(c))
+                .build();
+        for (int i = 0; i < 100; i++) map.put(i, "value" + i);
+        assertTrue(map.size() <= 10);
+        assertTrue(causes.isEmpty(), "Spilled values should not be notified as removed");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(map.containsKey(i));
+            assertEquals("value" + i, map.get(i), "Evicted values should be read from disk");
+        }
+        assertEquals(Collections.singletonMap(5, "value5"), map.getAll(Collections.singletonList(5)));
+        assertNotNull(map.remove(0));
+        assertFalse(map.containsKey(0));
+        map.put(1, "other");
+        assertEquals("other", map.get(1), "Written value should replace the spilled one");
+        map.clear();
+        assertNull(map.get(50));
+    }
+
+    @Test
+    void testDiskOverflowKeepsTimeToLive(@TempDir Path directory) {
+        AtomicLong time = new AtomicLong();
+        CacheMap<Integer, String> map = CacheMap.builder()
+                .maximumSize(10)
+                .expirationTime(100)
+                .expireAfterAccess()
+                .diskOverflow(directory, 1024)
+                .executor(Runnable::run)
+                .ticker(time::get)
+                .build();
+        for (int i = 0; i < 20; i++) map.put(i, "value" + i);
+        time.set(50);
+        for (int i = 0; i < 20; i++) assertEquals("value" + i, map.get(i));
+        time.set(90);
+        for (int i = 0; i < 20; i++) assertEquals("value" + i, map.get(i));
+        time.set(145);
+        for (int i = 0; i < 20; i++)
+            assertTrue(map.containsKey(i), "Reads should extend the expiration of promoted values by the whole time to live");
+        time.set(190);
+        for (int i = 0; i < 20; i++) assertFalse(map.containsKey(i));
+    }
+
+    @Test
+    void testDiskOverflowRequiresBound(@TempDir Path directory) {
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder().diskOverflow(directory).build());
+    }
+
+    @Test
+    void testSnapshotAndRestore(@TempDir Path directory) throws IOException {
+        AtomicLong time = new AtomicLong(1000);
+        CacheMap<String, Integer> map = CacheMap.builder().expirationTime(10_000).ticker(time::get).build();
+        for (int i = 0; i < 5000; i++) map.put("key" + i, i);
+        map.put("short", -1, 5_000);
+        time.addAndGet(50);
+        Path path = directory.resolve("cache.snapshot");
+        assertEquals(5001, map.snapshotTo(path));
+
+        // Some wall-clock time passes between snapshot and restore, so only margins are checked
+        AtomicLong otherTime = new AtomicLong(1_000_000);
+        CacheMap<String, Integer> restored = CacheMap.builder().ticker(otherTime::get).build();
+        assertEquals(5001, restored.restoreFrom(path));
+        assertEquals(4999, restored.get("key4999"));
+        otherTime.addAndGet(4_000);
+        assertEquals(-1, restored.get("short"));
+        otherTime.addAndGet(950);
+        assertNull(restored.get("short"), "Restored value should keep its remaining time to live");
+        assertEquals(0, restored.get("key0"));
+        otherTime.addAndGet(5_000);
+        assertNull(restored.get("key0"));
+    }
+
+    @Test
+    void testRestoreKeepsNewerValues(@TempDir Path directory) throws IOException {
+        CacheMap<String, Object> map = new CacheMap<>();
+        map.put("key", 1);
+        map.put("newer", 2);
+        map.put("invalid", new Invalid());
+        Path path = directory.resolve("cache.snapshot");
+        assertEquals(3, map.snapshotTo(path));
+        CacheMap<String, Object> restored = new CacheMap<>();
+        restored.put("newer", 3);
+        assertEquals(1, restored.restoreFrom(path), "Existing and invalid values should not be restored");
+        assertEquals(1, restored.get("key"));
+        assertEquals(3, restored.get("newer"));
+        assertFalse(restored.containsKey("invalid"));
+    }
+
+    @Test
+    void testRestoreKeepsTimeToLive(@TempDir Path directory) throws IOException {
+        AtomicLong time = new AtomicLong();
+        CacheMap<String, Integer> map = CacheMap.builder().expirationTime(1000).expireAfterAccess().ticker(time::get).build();
+        map.put("key", 1);
+        time.set(600);
+        Path path = directory.resolve("cache.snapshot");
+        map.snapshotTo(path);
+        AtomicLong otherTime = new AtomicLong();
+        CacheMap<String, Integer> restored = CacheMap.builder().expirationTime(1000).expireAfterAccess().ticker(otherTime::get).build();
+        assertEquals(1, restored.restoreFrom(path));
+        otherTime.set(100);
+        assertEquals(1, restored.get("key"));
+        otherTime.set(1000);
+        assertEquals(1, restored.get("key"), "Reads should extend the expiration by the original time to live");
+    }
+
+    /**
+     * A value that can be serialized, but not deserialized.
+     */
+    private static final class Invalid implements java.io.Serializable {
+
+        private Object readResolve() {
+            throw new IllegalStateException();
+        }
+    }
+
+    @Test
+    void testRestoreSkipsExpired(@TempDir Path directory) throws IOException, InterruptedException {
+        CacheMap<String, Integer> map = CacheMap.builder().ticker(Ticker.precise()).build();
+        map.put("expiring", 1, 20);
+        map.put("key", 2);
+        Path path = directory.resolve("cache.snapshot");
+        map.snapshotTo(path);
+        Thread.sleep(50);
+        CacheMap<String, Integer> restored = new CacheMap<>();
+        assertEquals(1, restored.restoreFrom(path));
+        assertEquals(Collections.singleton("key"), restored.keySet());
+    }
+}
@@ -0,0 +1,389 @@
+package it.fulminazzo.fulmicollection.structures;
+
+import it.fulminazzo.fulmicollection.structures.cache.CacheStats;
+import it.fulminazzo.fulmicollection.structures.cache.InvalidationBus;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadingCacheMapTest {
+
+    @Test
+    void testLoadOnMiss() {
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCacheMap<String, Integer> map = new LoadingCacheMap<>(k -> {
+            loads.incrementAndGet();
+            return k.length();
+        });
+        assertEquals(5, map.get("Hello"));
+        assertEquals(5, map.get("Hello"));
+        assertEquals(1, loads.get(), "Value should be loaded only once");
+        assertTrue(map.containsKey("Hello"));
+    }
+
+    @Test
+    void testNullIsNotStored() {
+        LoadingCacheMap<String, Integer> map = new LoadingCacheMap<>(k -> null);
+        assertNull(map.get("Hello"));
+        assertFalse(map.containsKey("Hello"));
+    }
+
+    @Test
+    void testNegativeCaching() {
+        AtomicLong time = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .ticker(time::get)
+                .negativeExpirationTime(10)
+                .build(k -> {
+                    loads.incrementAndGet();
+                    return null;
+                });
+        assertNull(map.get("missing"));
+        assertNull(map.get("missing"));
+        assertEquals(Collections.emptyMap(), map.getAll(Collections.singletonList("missing")));
+        assertEquals(1, loads.get(), "Missing key should be remembered");
+        time.set(10);
+        assertNull(map.get("missing"));
+        assertEquals(2, loads.get(), "Missing key should be forgotten after the negative expiration time");
+        map.put("missing", 1);
+        map.remove("missing");
+        assertNull(map.get("missing"));
+        assertEquals(3, loads.get(), "Missing key should be forgotten once written");
+    }
+
+    @Test
+    void testNegativeCachingIsBounded() {
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .negativeExpirationTime(60_000, 2)
+                .build(k -> {
+                    loads.incrementAndGet();
+                    return null;
+                });
+        for (String key : Arrays.asList("first", "second", "third")) assertNull(map.get(key));
+        for (String key : Arrays.asList("first", "second", "third")) assertNull(map.get(key));
+        assertTrue(loads.get() > 3, "At most two missing keys should be remembered");
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder()
+                .negativeExpirationTime(10, 0)
+                .build(k -> k));
+    }
+
+    @Test
+    void testNegativeCachingForgetsInvalidatedKeys() throws IOException, InterruptedException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (InvalidationBus firstBus = new InvalidationBus(address); InvalidationBus secondBus = new InvalidationBus(address)) {
+            firstBus.addPeer(secondBus.getAddress());
+            secondBus.addPeer(firstBus.getAddress());
+            Map<String, Integer> source = new ConcurrentHashMap<>();
+            LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                    .negativeExpirationTime(60_000)
+                    .invalidationBus(firstBus, "map")
+                    .build(source::get);
+            CacheMap<String, Integer> writer = CacheMap.builder().invalidationBus(secondBus, "map").build();
+            assertNull(map.get("key"));
+            source.put("key", 1);
+            writer.put("key", 1);
+            Integer value = null;
+            for (int i = 0; i < 500 && value == null; i++) {
+                Thread.sleep(10);
+                value = map.get("key");
+            }
+            assertEquals(1, value, "Received invalidations should forget missing keys");
+        }
+    }
+
+    @Test
+    void testKnownKeys() {
+        AtomicLong time = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        List<String> keys = new ArrayList<>(Arrays.asList("first", "second"));
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .ticker(time::get)
+                .executor(Runnable::run)
+                .recordStats()
+                .knownKeys(() -> keys, 100)
+                .build(k -> {
+                    loads.incrementAndGet();
+                    return keys.contains(k) ? k.length() : null;
+                });
+        assertEquals(5, map.get("first"));
+        assertNull(map.get("third"));
+        assertEquals(Collections.singletonMap("second", 6), map.getAll(Arrays.asList("second", "third")));
+        assertEquals(2, loads.get(), "Unknown key should be rejected without loading");
+        assertEquals(4, map.stats().getMissCount(), "Rejected keys should be counted as misses");
+        map.put("written", 1);
+        assertEquals(1, map.get("written"), "Written key should be added to the filter");
+        keys.add("third");
+        time.set(99);
+        assertNull(map.get("third"));
+        time.set(100);
+        map.get("first");
+        assertEquals(5, map.get("third"), "Key should be recognized after the filter is rebuilt");
+        map.clear();
+        assertNull(map.get("written"));
+        assertEquals(4, loads.get(), "Written key should survive rebuilds");
+    }
+
+    @Test
+    void testInvalidKnownKeysPeriod() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder()
+                .knownKeys(Collections::emptyList, 0)
+                .build(k -> k));
+    }
+
+    @Test
+    void testSingleFlight() throws InterruptedException {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        LoadingCacheMap<String, Integer> map = CacheMap.builder().build(k -> {
+            loads.incrementAndGet();
+            Thread.sleep(50);
+            return 10;
+        });
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger results = new AtomicInteger();
+        for (int i = 0; i < 20; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                results.addAndGet(map.get("key"));
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        assertEquals(1, loads.get(), "Concurrent callers should share the same load");
+        assertEquals(200, results.get());
+    }
+
+    @Test
+    void testCheckedExceptionIsPropagated() {
+        IOException exception = new IOException("Loading failed");
+        LoadingCacheMap<String, Integer> map = new LoadingCacheMap<>(k -> {
+            throw exception;
+        });
+        RuntimeException thrown = assertThrowsExactly(RuntimeException.class, () -> map.get("key"));
+        assertEquals(exception, thrown.getCause());
+        assertFalse(map.containsKey("key"));
+    }
+
+    @Test
+    void testRuntimeExceptionIsPropagated() {
+        LoadingCacheMap<String, Integer> map = new LoadingCacheMap<>(k -> {
+            throw new IllegalStateException("Loading failed");
+        });
+        assertThrowsExactly(IllegalStateException.class, () -> map.get("key"));
+    }
+
+    @Test
+    void testRefreshAfter() {
+        AtomicLong time = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(1000)
+                .refreshAfter(100)
+                .ticker(time::get)
+                .executor(Runnable::run)
+                .build(k -> loads.incrementAndGet());
+        assertEquals(1, map.get("key"));
+        time.set(50);
+        assertEquals(1, map.get("key"));
+        assertEquals(1, loads.get(), "Value should not be refreshed before refresh time");
+        time.set(150);
+        assertEquals(1, map.get("key"), "Old value should be returned while refreshing");
+        assertEquals(2, map.get("key"), "New value should be returned after refreshing");
+    }
+
+    @Test
+    void testRefreshFailureKeepsValue() {
+        AtomicLong time = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(1000)
+                .refreshAfter(100)
+                .ticker(time::get)
+                .executor(Runnable::run)
+                .build(k -> {
+                    if (loads.incrementAndGet() > 1) throw new IllegalStateException();
+                    return 1;
+                });
+        assertEquals(1, map.get("key"));
+        time.set(150);
+        assertEquals(1, map.get("key"));
+        assertEquals(1, map.get("key"));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void testFailedRefreshIsLoadedAgainByWaiters() throws InterruptedException {
+        AtomicLong time = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(1000)
+                .refreshAfter(100)
+                .ticker(time::get)
+                .executor(tasks::add)
+                .build(k -> {
+                    if (loads.incrementAndGet() == 2) throw new IllegalStateException();
+                    return loads.get();
+                });
+        assertEquals(1, map.get("key"));
+        time.set(150);
+        assertEquals(1, map.get("key"));
+        assertEquals(1, tasks.size());
+        time.set(1100);
+        AtomicReference<Object> result = new AtomicReference<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                result.set(map.get("key"));
+            } catch (Throwable e) {
+                result.set(e);
+            }
+        });
+        waiter.start();
+        while (waiter.getState() != Thread.State.WAITING) Thread.yield();
+        tasks.forEach(Runnable::run);
+        waiter.join();
+        assertEquals(3, result.get(), "Callers waiting for a failed refresh should load the value again");
+    }
+
+    @Test
+    void testEmptyRefreshIsNotNegative() {
+        AtomicLong time = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(1000)
+                .refreshAfter(100)
+                .negativeExpirationTime(60_000)
+                .ticker(time::get)
+                .executor(Runnable::run)
+                .build(k -> loads.incrementAndGet() == 2 ? null : loads.get());
+        assertEquals(1, map.get("key"));
+        time.set(150);
+        assertEquals(1, map.get("key"));
+        assertEquals(2, loads.get());
+        time.set(1100);
+        assertEquals(3, map.get("key"), "A refresh returning null should not mark a cached key as missing");
+    }
+
+    @Test
+    void testRefreshDoesNotOverwriteConcurrentWrites() {
+        AtomicLong time = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(1000)
+                .refreshAfter(100)
+                .ticker(time::get)
+                .executor(tasks::add)
+                .build(k -> loads.incrementAndGet());
+        assertEquals(1, map.get("written"));
+        assertEquals(2, map.get("removed"));
+        time.set(150);
+        map.get("written");
+        map.get("removed");
+        assertEquals(2, tasks.size());
+        map.put("written", 10);
+        map.remove("removed");
+        tasks.forEach(Runnable::run);
+        assertEquals(4, loads.get());
+        assertEquals(10, map.get("written"), "Refreshed value should not overwrite a newer one");
+        assertFalse(map.containsKey("removed"), "Refreshed value should not resurrect a removed key");
+    }
+
+    @Test
+    void testRefreshReplacesUnchangedValue() {
+        AtomicLong time = new AtomicLong();
+        AtomicInteger loads = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        LoadingCacheMap<String, Integer> map = CacheMap.builder()
+                .expirationTime(1000)
+                .refreshAfter(100)
+                .ticker(time::get)
+                .executor(tasks::add)
+                .build(k -> loads.incrementAndGet());
+        assertEquals(1, map.get("key"));
+        time.set(150);
+        assertEquals(1, map.get("key"));
+        tasks.forEach(Runnable::run);
+        assertEquals(2, map.get("key"));
+    }
+
+    @Test
+    void testInvalidRefreshAfter() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> CacheMap.builder()
+                .expirationTime(100)
+                .refreshAfter(100)
+                .build(k -> k));
+    }
+
+    @Test
+    void testGetAllLoadsMissesAtOnce() {
+        List<Collection<Integer>> calls = new ArrayList<>();
+        LoadingCacheMap<Integer, String> map = new LoadingCacheMap<>(String::valueOf, keys -> {
+            calls.add(new ArrayList<>(keys));
+            Map<Integer, String> values = new HashMap<>();
+            for (Integer key : keys) values.put(key, String.valueOf(key));
+            return values;
+        });
+        map.put(1, "one");
+        Map<Integer, String> result = map.getAll(Arrays.asList(1, 2, 3, 2));
+        assertEquals(3, result.size());
+        assertEquals("one", result.get(1));
+        assertEquals("3", result.get(3));
+        assertEquals(1, calls.size(), "Missing values should be loaded in a single call");
+        assertEquals(Arrays.asList(2, 3), calls.get(0));
+        assertEquals("2", map.get(2));
+    }
+
+    @Test
+    void testGetAllWithoutBulkLoader() {
+        LoadingCacheMap<Integer, String> map = new LoadingCacheMap<>(k -> k > 2 ? null : String.valueOf(k));
+        Map<Integer, String> result = map.getAll(Arrays.asList(1, 2, 3));
+        assertEquals(2, result.size());
+        assertFalse(result.containsKey(3));
+    }
+
+    @Test
+    void testGetAllPropagatesException() {
+        LoadingCacheMap<Integer, String> map = new LoadingCacheMap<>(String::valueOf, keys -> {
+            throw new IOException("Loading failed");
+        });
+        assertThrowsExactly(RuntimeException.class, () -> map.getAll(Arrays.asList(1, 2)));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void testLoadStats() {
+        LoadingCacheMap<String, Integer> map = CacheMap.builder().recordStats().build(k -> {
+            if (k.isEmpty()) throw new IOException("Empty key");
+            return k.length();
+        });
+        map.get("Hello");
+        map.get("Hello");
+        assertThrowsExactly(RuntimeException.class, () -> map.get(""));
+
+        CacheStats stats = map.stats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+        assertEquals(1, stats.getLoadSuccessCount());
+        assertEquals(1, stats.getLoadFailureCount());
+        assertTrue(stats.getTotalLoadTime() > 0);
+    }
+}
@@ -0,0 +1,81 @@
+package it.fulminazzo.fulmicollection.structures;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongCacheMapTest {
+
+    @Test
+    void testPutGetAndRemove() {
+        LongCacheMap<String> map = new LongCacheMap<>();
+        assertNull(map.put(1L, "first"));
+        assertNull(map.put(Long.MIN_VALUE, "min"));
+        assertEquals("first", map.put(1L, "second"));
+        assertEquals("second", map.get(1L));
+        assertEquals("min", map.get(Long.MIN_VALUE));
+        assertTrue(map.containsKey(1L));
+        assertFalse(map.containsKey(2L));
+        assertEquals(2, map.size());
+        assertEquals("second", map.remove(1L));
+        assertNull(map.remove(1L));
+        assertEquals(1, map.size());
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(Long.MIN_VALUE));
+    }
+
+    @Test
+    void testExpiration() {
+        AtomicLong time = new AtomicLong();
+        LongCacheMap<String> map = new LongCacheMap<>(100, 50, 0, time::get);
+        map.put(1L, "default");
+        map.put(2L, "long", 200);
+        time.set(49);
+        assertEquals("default", map.get(1L));
+        time.set(50);
+        assertNull(map.get(1L), "Expired value should not be returned");
+        assertEquals(2, map.size(), "Expired value should be kept until the period elapses");
+        time.set(100);
+        assertEquals(1, map.size());
+        assertEquals("long", map.get(2L));
+        assertNull(map.put(1L, "new"), "Expired value should not be returned on overwrite");
+        time.set(150);
+        map.clearExpired();
+        assertEquals(1, map.size());
+        assertEquals("long", map.get(2L));
+        assertThrowsExactly(IllegalArgumentException.class, () -> map.put(3L, "value", -1));
+    }
+
+    @Test
+    void testAgainstHashMap() {
+        AtomicLong time = new AtomicLong();
+        LongCacheMap<Long> map = new LongCacheMap<>(Long.MAX_VALUE, Long.MAX_VALUE, 0, time::get);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            // Few distinct keys, so that clusters are often shifted back
+            long key = random.nextInt(5_000) * 1024L;
+            if (random.nextInt(3) == 0) assertEquals(expected.remove(key), map.remove(key));
+            else assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+        }
+        assertEquals(expected.size(), map.size());
+        expected.forEach((k, v) -> assertEquals(v, map.get(k)));
+    }
+
+    @Test
+    void testSweepShiftsClusters() {
+        AtomicLong time = new AtomicLong();
+        LongCacheMap<Long> map = new LongCacheMap<>(Long.MAX_VALUE, 100, 0, time::get);
+        for (long i = 0; i < 20_000; i++) map.put(i, i, i % 2 == 0 ? 10 : 1000);
+        time.set(10);
+        map.clearExpired();
+        assertEquals(10_000, map.size());
+        for (long i = 0; i < 20_000; i++) assertEquals(i % 2 == 0 ? null : i, map.get(i));
+    }
+}
@@ -0,0 +1,39 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void testNoFalseNegatives() {
+        BloomFilter<Integer> filter = new BloomFilter<>(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) filter.put(i);
+        for (int i = 0; i < 10_000; i++) assertTrue(filter.mightContain(i));
+    }
+
+    @Test
+    void testFalsePositiveRate() {
+        BloomFilter<Integer> filter = new BloomFilter<>(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) filter.put(i);
+        int falsePositives = 0;
+        for (int i = 10_000; i < 110_000; i++) if (filter.mightContain(i)) falsePositives++;
+        assertTrue(falsePositives < 2_000, "False positive rate should be close to 1%, but was " + falsePositives / 1000.0 + "%");
+    }
+
+    @Test
+    void testSizing() {
+        BloomFilter<String> filter = new BloomFilter<>(1_000, 0.01);
+        assertTrue(filter.getBitCount() >= 9_585);
+        assertEquals(7, filter.getHashCount());
+        assertFalse(new BloomFilter<String>(0, 0.5).mightContain("key"));
+    }
+
+    @Test
+    void testInvalidSettings() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> new BloomFilter<>(-1, 0.01));
+        assertThrowsExactly(IllegalArgumentException.class, () -> new BloomFilter<>(10, 0));
+        assertThrowsExactly(IllegalArgumentException.class, () -> new BloomFilter<>(10, 1));
+    }
+}
@@ -0,0 +1,75 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSnapshotTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void testWriteAndRead() throws IOException {
+        Path path = this.directory.resolve("snapshot");
+        byte[] large = new byte[100_000];
+        large[large.length - 1] = 1;
+        try (CacheSnapshot.Writer writer = new CacheSnapshot.Writer(path)) {
+            for (int i = 0; i < 1000; i++) writer.write(new byte[]{(byte) i}, new byte[]{1, 2, 3}, i, 1, i + 1);
+            writer.write(new byte[]{1}, large, 5, 1, 6);
+            writer.commit();
+        }
+        try (CacheSnapshot.Reader reader = new CacheSnapshot.Reader(path)) {
+            for (int i = 0; i < 1000; i++) {
+                CacheSnapshot.Record record = reader.next();
+                assertNotNull(record);
+                assertArrayEquals(new byte[]{(byte) i}, record.getKey());
+                assertArrayEquals(new byte[]{1, 2, 3}, record.getValue());
+                assertEquals(i, record.getWriteTime());
+                assertEquals(1, record.getTtl());
+                assertEquals(i + 1, record.getExpirationTime());
+            }
+            assertArrayEquals(large, reader.next().getValue());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    void testUncommittedSnapshotIsDiscarded() throws IOException {
+        Path path = this.directory.resolve("snapshot");
+        try (CacheSnapshot.Writer writer = new CacheSnapshot.Writer(path)) {
+            writer.write(new byte[]{1}, new byte[]{1}, 0, 1, 1);
+        }
+        try (Stream<Path> files = Files.list(this.directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testInvalidSnapshot() throws IOException {
+        Path path = this.directory.resolve("invalid");
+        Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrowsExactly(IOException.class, () -> new CacheSnapshot.Reader(path));
+    }
+
+    @Test
+    void testTruncatedSnapshot() throws IOException {
+        Path path = this.directory.resolve("snapshot");
+        try (CacheSnapshot.Writer writer = new CacheSnapshot.Writer(path)) {
+            writer.write(new byte[]{1}, new byte[]{1, 2, 3}, 0, 1, 1);
+            writer.commit();
+        }
+        byte[] data = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(data, data.length - 1));
+        try (CacheSnapshot.Reader reader = new CacheSnapshot.Reader(path)) {
+            assertThrowsExactly(EOFException.class, reader::next);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheStatsTest {
+
+    @Test
+    void testEmptyRates() {
+        CacheStats stats = CacheStats.empty();
+        assertEquals(0, stats.getRequestCount());
+        assertEquals(1, stats.getHitRate());
+        assertEquals(0, stats.getMissRate());
+        assertEquals(0, stats.getLoadFailureRate());
+        assertEquals(0, stats.getAverageLoadTime());
+        assertEquals(0, stats.getAverageSweepTime());
+    }
+
+    @Test
+    void testRates() {
+        CacheStats stats = new CacheStats(3, 1, 4, 1, 1, 100, 2, 1, 4, 40);
+        assertEquals(4, stats.getRequestCount());
+        assertEquals(0.75, stats.getHitRate());
+        assertEquals(0.25, stats.getMissRate());
+        assertEquals(2, stats.getLoadCount());
+        assertEquals(0.5, stats.getLoadFailureRate());
+        assertEquals(50, stats.getAverageLoadTime());
+        assertEquals(10, stats.getAverageSweepTime());
+    }
+
+    @Test
+    void testMinus() {
+        CacheStats previous = new CacheStats(1, 1, 1, 1, 1, 1, 1, 1, 1, 1);
+        CacheStats current = new CacheStats(3, 2, 1, 4, 1, 6, 2, 1, 5, 9);
+        assertEquals(new CacheStats(2, 1, 0, 3, 0, 5, 1, 0, 4, 8), current.minus(previous));
+        assertEquals(CacheStats.empty(), previous.minus(current));
+    }
+
+    @Test
+    void testCounterSnapshot() {
+        StatsCounter counter = new StatsCounter();
+        counter.recordHits(2);
+        counter.recordMisses(1);
+        counter.recordPut();
+        counter.recordLoadSuccess(10);
+        counter.recordLoadFailure(20);
+        counter.recordExpiration();
+        counter.recordEviction();
+        counter.recordSweep(5);
+        assertEquals(new CacheStats(2, 1, 1, 1, 1, 30, 1, 1, 1, 5), counter.snapshot());
+    }
+}
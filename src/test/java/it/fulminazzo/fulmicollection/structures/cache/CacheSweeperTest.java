@@ -0,0 +1,37 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheSweeperTest {
+
+    @Test
+    void testPeriodicExecution() throws InterruptedException {
+        AtomicInteger target = new AtomicInteger();
+        CacheSweeper.register(target, AtomicInteger::incrementAndGet, 10, MaintenanceMode.PLATFORM_THREAD);
+        Thread.sleep(100);
+        assertTrue(target.get() > 1, "Action should be executed periodically");
+    }
+
+    @Test
+    void testSharedThread() throws InterruptedException {
+        AtomicInteger first = new AtomicInteger();
+        AtomicInteger second = new AtomicInteger();
+        CacheSweeper.register(first, t -> t.set(Thread.currentThread().hashCode()), 10, MaintenanceMode.PLATFORM_THREAD);
+        CacheSweeper.register(second, t -> t.set(Thread.currentThread().hashCode()), 10, MaintenanceMode.PLATFORM_THREAD);
+        Thread.sleep(50);
+        assertNotEquals(0, first.get());
+        assertEquals(first.get(), second.get(), "Actions should be executed by the same thread");
+    }
+
+    @Test
+    void testInvalidRegistrations() {
+        assertThrowsExactly(IllegalArgumentException.class, () ->
+                CacheSweeper.register(new Object(), t -> {}, 10, MaintenanceMode.CALLER));
+        assertThrowsExactly(IllegalArgumentException.class, () ->
+                CacheSweeper.register(new Object(), t -> {}, 0, MaintenanceMode.PLATFORM_THREAD));
+    }
+}
@@ -0,0 +1,41 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrequencySketchTest {
+
+    @Test
+    void testIncrement() {
+        FrequencySketch<String> sketch = new FrequencySketch<>(100);
+        assertEquals(0, sketch.frequency("key"));
+        for (int i = 0; i < 5; i++) sketch.increment("key");
+        assertEquals(5, sketch.frequency("key"));
+    }
+
+    @Test
+    void testCountersAreCapped() {
+        FrequencySketch<String> sketch = new FrequencySketch<>(100);
+        for (int i = 0; i < 100; i++) sketch.increment("key");
+        assertEquals(15, sketch.frequency("key"));
+    }
+
+    @Test
+    void testReset() {
+        FrequencySketch<Integer> sketch = new FrequencySketch<>(8);
+        for (int i = 0; i < 10; i++) sketch.increment(-1);
+        for (int i = 0; i < 80; i++) sketch.increment(i);
+        assertTrue(sketch.frequency(-1) < 10, "Counters should be halved after reaching the sample size");
+    }
+
+    @Test
+    void testEnsureCapacity() {
+        FrequencySketch<String> sketch = new FrequencySketch<>(8);
+        sketch.increment("key");
+        sketch.ensureCapacity(4);
+        assertEquals(1, sketch.frequency("key"), "Smaller capacity should be ignored");
+        sketch.ensureCapacity(1024);
+        assertEquals(0, sketch.frequency("key"), "Enlarged sketch should start empty");
+    }
+}
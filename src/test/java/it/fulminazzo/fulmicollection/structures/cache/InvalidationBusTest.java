@@ -0,0 +1,140 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvalidationBusTest {
+    private InvalidationBus first;
+    private InvalidationBus second;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        this.first = new InvalidationBus(address, Runnable::run);
+        this.second = new InvalidationBus(address, Runnable::run);
+        for (InvalidationBus bus : Arrays.asList(this.first, this.second)) {
+            bus.addPeer(this.first.getAddress());
+            bus.addPeer(this.second.getAddress());
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.first.close();
+        this.second.close();
+    }
+
+    @Test
+    void testPublish() throws InterruptedException {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        BlockingQueue<Object> own = new LinkedBlockingQueue<>();
+        this.first.subscribe("channel", own::add);
+        this.second.subscribe("channel", received::add);
+        this.second.subscribe("other", k -> fail("Key should not be received on another channel"));
+        this.first.publish("channel", "key");
+        this.first.publish("channel", 1);
+        Set<Object> keys = new HashSet<>();
+        for (int i = 0; i < 2; i++) keys.add(received.poll(5, TimeUnit.SECONDS));
+        assertEquals(new HashSet<>(Arrays.asList("key", 1)), keys);
+        assertNull(own.poll(100, TimeUnit.MILLISECONDS), "Own invalidations should be ignored");
+    }
+
+    @Test
+    void testManyKeysAreSplitInDatagrams() throws InterruptedException {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        this.second.subscribe("channel", received::add);
+        Set<String> expected = new HashSet<>();
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 100; i++) padding.append('x');
+        this.first.publish("channel", "first");
+        for (int i = 0; i < 1000; i++) expected.add(padding.toString() + i);
+        expected.forEach(k -> this.first.publish("channel", k));
+        expected.add("first");
+        Set<Object> keys = new HashSet<>();
+        while (keys.size() < expected.size()) {
+            Object key = received.poll(5, TimeUnit.SECONDS);
+            assertNotNull(key, "Every key should be received");
+            keys.add(key);
+        }
+        assertEquals(expected, keys);
+    }
+
+    @Test
+    void testPublishClear() throws InterruptedException {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        this.second.subscribe("channel", received::add, () -> received.add("clear"));
+        this.first.publishClear("channel");
+        assertEquals("clear", received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testOnlyAllowedKeyClassesAreReceived() throws InterruptedException {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        this.second.subscribe("channel", received::add);
+        this.first.publish("channel", new Key("first"));
+        this.first.publish("channel", "marker");
+        assertEquals("marker", received.poll(5, TimeUnit.SECONDS), "Keys of other classes should be discarded");
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        this.second.allowKeyClass(Key.class);
+        this.first.publish("channel", new Key("second"));
+        assertEquals(new Key("second"), received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testUnsubscribeOnlyRemovesGivenListener() throws InterruptedException {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        this.second.subscribe("channel", received::add);
+        this.second.unsubscribe("channel", k -> {});
+        this.first.publish("channel", "key");
+        assertEquals("key", received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testOnlyLoopbackAddresses() throws IOException {
+        InetSocketAddress wildcard = new InetSocketAddress(0);
+        assertThrowsExactly(IllegalArgumentException.class, () -> new InvalidationBus(wildcard));
+        assertThrowsExactly(IllegalArgumentException.class, () -> this.first.addPeer(
+                new InetSocketAddress(InetAddress.getByAddress(new byte[]{10, 0, 0, 1}), 1234)));
+    }
+
+    @Test
+    void testUnknownSendersAreIgnored() throws IOException, InterruptedException {
+        BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+        this.second.subscribe("channel", received::add);
+        try (InvalidationBus stranger = new InvalidationBus(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), Runnable::run)) {
+            stranger.addPeer(this.second.getAddress());
+            stranger.publish("channel", "key");
+        }
+        assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    private static final class Key implements Serializable {
+        private final String name;
+
+        Key(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof Key && ((Key) o).name.equals(this.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.name.hashCode();
+        }
+    }
+}
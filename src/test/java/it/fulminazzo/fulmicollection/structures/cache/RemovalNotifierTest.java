@@ -0,0 +1,70 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemovalNotifierTest {
+
+    @Test
+    void testRejectedExecutionRunsInline() {
+        List<String> keys = new ArrayList<>();
+        RemovalNotifier<String, Integer> notifier = new RemovalNotifier<>((k, v, c) -> keys.add(k), r -> {
+            throw new RejectedExecutionException();
+        });
+        notifier.notify("key", 1, RemovalCause.EXPLICIT);
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    void testListenerExceptionsAreIgnored() {
+        List<String> keys = new ArrayList<>();
+        RemovalNotifier<String, Integer> notifier = new RemovalNotifier<>((k, v, c) -> {
+            if (k.equals("fail")) throw new IllegalStateException();
+            keys.add(k);
+        }, Runnable::run);
+        notifier.notify("fail", 1, RemovalCause.EXPLICIT);
+        notifier.notify("key", 2, RemovalCause.EXPLICIT);
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    void testListenerErrorsDoNotStopDraining() {
+        List<String> keys = new ArrayList<>();
+        RemovalNotifier<String, Integer> notifier = new RemovalNotifier<>((k, v, c) -> {
+            if (k.equals("fail")) throw new AssertionError();
+            keys.add(k);
+        }, Runnable::run);
+        assertThrowsExactly(AssertionError.class, () -> notifier.notify("fail", 1, RemovalCause.EXPLICIT));
+        notifier.notify("key", 2, RemovalCause.EXPLICIT);
+        assertEquals(1, keys.size());
+    }
+
+    @Test
+    void testRescheduledAfterDrain() {
+        List<Runnable> tasks = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        RemovalNotifier<String, Integer> notifier = new RemovalNotifier<>((k, v, c) -> keys.add(k), tasks::add);
+        notifier.notify("first", 1, RemovalCause.EXPIRED);
+        notifier.notify("second", 2, RemovalCause.SIZE);
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        notifier.notify("third", 3, RemovalCause.REPLACED);
+        assertEquals(2, tasks.size());
+        tasks.get(1).run();
+        assertEquals(3, keys.size());
+    }
+
+    @Test
+    void testWasEvicted() {
+        assertTrue(RemovalCause.EXPIRED.wasEvicted());
+        assertTrue(RemovalCause.SIZE.wasEvicted());
+        assertTrue(RemovalCause.COLLECTED.wasEvicted());
+        assertFalse(RemovalCause.EXPLICIT.wasEvicted());
+        assertFalse(RemovalCause.REPLACED.wasEvicted());
+    }
+}
@@ -0,0 +1,90 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void testPutAndGet() {
+        SegmentStore<String> store = new SegmentStore<>(this.directory, 1024, Runnable::run);
+        store.put("key", new byte[]{1, 2, 3}, 100);
+        assertArrayEquals(new byte[]{1, 2, 3}, store.get("key", 99));
+        assertTrue(store.contains("key", 99));
+        assertEquals(100, store.getExpirationTime("key"));
+        assertNull(store.get("key", 100), "Expired value should not be returned");
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    void testRemove() {
+        SegmentStore<String> store = new SegmentStore<>(this.directory, 1024, Runnable::run);
+        store.put("key", new byte[]{1}, Long.MAX_VALUE);
+        assertArrayEquals(new byte[]{1}, store.remove("key", 0));
+        assertNull(store.remove("key", 0));
+        assertFalse(store.contains("key", 0));
+    }
+
+    @Test
+    void testSegmentsAreRolled() throws IOException {
+        SegmentStore<Integer> store = new SegmentStore<>(this.directory, 100, Runnable::run);
+        for (int i = 0; i < 10; i++) store.put(i, new byte[40], Long.MAX_VALUE);
+        assertEquals(5, store.getSegmentCount());
+        assertEquals(5, countFiles());
+        store.put(-1, new byte[500], Long.MAX_VALUE);
+        assertEquals(500, store.get(-1, 0).length, "Large values should get their own segment");
+    }
+
+    @Test
+    void testGarbageIsCompacted() throws IOException {
+        SegmentStore<Integer> store = new SegmentStore<>(this.directory, 100, Runnable::run);
+        for (int i = 0; i < 10; i++) store.put(i, new byte[]{(byte) i}, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) store.put(i, new byte[40], Long.MAX_VALUE);
+        for (int i = 0; i < 9; i++) store.invalidate(i);
+        assertEquals(1, store.size());
+        assertEquals(40, store.get(9, 0).length);
+        assertTrue(store.getSegmentCount() <= 2, "Sparse segments should be compacted");
+        assertEquals(store.getSegmentCount(), countFiles());
+    }
+
+    @Test
+    void testCompactRemovesExpired() {
+        SegmentStore<Integer> store = new SegmentStore<>(this.directory, 1024, Runnable::run);
+        store.put(1, new byte[]{1}, 10);
+        store.put(2, new byte[]{2}, 20);
+        store.compact(10);
+        assertEquals(1, store.size());
+        assertArrayEquals(new byte[]{2}, store.get(2, 10));
+    }
+
+    @Test
+    void testClearDeletesFiles() throws IOException {
+        SegmentStore<Integer> store = new SegmentStore<>(this.directory, 1024, Runnable::run);
+        store.put(1, new byte[]{1}, Long.MAX_VALUE);
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(0, countFiles());
+    }
+
+    @Test
+    void testOldFilesAreDeleted() throws IOException {
+        new SegmentStore<Integer>(this.directory, 1024, Runnable::run).put(1, new byte[]{1}, Long.MAX_VALUE);
+        new SegmentStore<Integer>(this.directory, 1024, Runnable::run);
+        assertEquals(0, countFiles());
+    }
+
+    private long countFiles() throws IOException {
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.count();
+        }
+    }
+}
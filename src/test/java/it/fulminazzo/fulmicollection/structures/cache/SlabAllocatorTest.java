@@ -0,0 +1,56 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlabAllocatorTest {
+
+    @Test
+    void testAllocateAndRead() {
+        SlabAllocator allocator = new SlabAllocator(1024);
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) 7);
+        SlabAllocator.Handle handle = allocator.allocate(data);
+        assertArrayEquals(data, handle.read());
+        assertEquals(128, allocator.getUsedBytes(), "Data should be rounded to its size class");
+        assertEquals(1024, allocator.getReservedBytes());
+    }
+
+    @Test
+    void testFreedChunksAreRecycled() {
+        SlabAllocator allocator = new SlabAllocator(1024);
+        SlabAllocator.Handle first = allocator.allocate(new byte[]{1, 2, 3});
+        allocator.free(first);
+        assertTrue(first.isFreed());
+        assertNull(first.read(), "Freed handle should not be readable");
+        assertEquals(0, allocator.getUsedBytes());
+
+        SlabAllocator.Handle second = allocator.allocate(new byte[]{4, 5, 6});
+        assertNull(first.read(), "Stale handle should not read the new data");
+        assertArrayEquals(new byte[]{4, 5, 6}, second.read());
+        allocator.free(first);
+        assertArrayEquals(new byte[]{4, 5, 6}, second.read(), "Double free should be ignored");
+        assertEquals(1024, allocator.getReservedBytes(), "No new slab should be reserved");
+    }
+
+    @Test
+    void testLargeData() {
+        SlabAllocator allocator = new SlabAllocator(64);
+        byte[] data = new byte[1000];
+        data[999] = 1;
+        SlabAllocator.Handle handle = allocator.allocate(data);
+        assertArrayEquals(data, handle.read());
+        assertEquals(0, allocator.getReservedBytes());
+        allocator.free(handle);
+        assertEquals(0, allocator.getUsedBytes());
+    }
+
+    @Test
+    void testInvalidSlabSize() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> new SlabAllocator(1000));
+        assertThrowsExactly(IllegalArgumentException.class, () -> new SlabAllocator(32));
+    }
+}
@@ -0,0 +1,34 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TickerTest {
+
+    @Test
+    void testPreciseIsMonotonic() {
+        Ticker ticker = Ticker.precise();
+        long previous = ticker.read();
+        for (int i = 0; i < 1000; i++) {
+            long current = ticker.read();
+            assertTrue(current >= previous, "Precise ticker should never go back");
+            previous = current;
+        }
+    }
+
+    @Test
+    void testCachedIsUpdated() throws InterruptedException {
+        Ticker ticker = Ticker.cached();
+        long start = ticker.read();
+        Thread.sleep(20);
+        long elapsed = ticker.read() - start;
+        assertTrue(elapsed >= 10, "Cached ticker should be updated in background, but only " + elapsed + "ms elapsed");
+    }
+
+    @Test
+    void testCachedIsCloseToPrecise() {
+        long difference = Ticker.precise().read() - Ticker.cached().read();
+        assertTrue(difference >= 0 && difference < 50, "Cached ticker should lag behind by a few milliseconds");
+    }
+}
@@ -0,0 +1,88 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimingWheelTest {
+
+    @ParameterizedTest
+    @ValueSource(longs = {0, 1, 63, 64, 4095, 4096, 300_000, 20_000_000, 100_000_000_000L})
+    void testExpireAtExactTime(long delay) {
+        final long start = 1_000_000;
+        TimingWheel<TestNode> wheel = new TimingWheel<>(start);
+        TestNode node = new TestNode(start + delay);
+        wheel.schedule(node);
+
+        List<TestNode> expired = new ArrayList<>();
+        if (delay > 0) {
+            wheel.advance(start + delay - 1, expired::add);
+            assertTrue(expired.isEmpty(), "Node should not expire before its time");
+            assertTrue(node.isScheduled(), "Node should still be scheduled");
+        }
+        wheel.advance(start + delay + 1, expired::add);
+        assertEquals(1, expired.size(), "Node should expire after its time");
+        assertFalse(node.isScheduled(), "Expired node should not be scheduled");
+    }
+
+    @Test
+    void testDeschedule() {
+        TimingWheel<TestNode> wheel = new TimingWheel<>(0);
+        TestNode first = new TestNode(10);
+        TestNode second = new TestNode(10);
+        wheel.schedule(first);
+        wheel.schedule(second);
+        wheel.deschedule(first);
+
+        List<TestNode> expired = new ArrayList<>();
+        wheel.advance(20, expired::add);
+        assertEquals(1, expired.size());
+        assertSame(second, expired.get(0));
+    }
+
+    @Test
+    void testReschedule() {
+        TimingWheel<TestNode> wheel = new TimingWheel<>(0);
+        TestNode node = new TestNode(10);
+        wheel.schedule(node);
+        node.expirationTime = 100;
+        wheel.reschedule(node);
+
+        List<TestNode> expired = new ArrayList<>();
+        wheel.advance(50, expired::add);
+        assertTrue(expired.isEmpty(), "Rescheduled node should not expire at its old time");
+        wheel.advance(100, expired::add);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    void testClear() {
+        TimingWheel<TestNode> wheel = new TimingWheel<>(0);
+        TestNode node = new TestNode(10);
+        wheel.schedule(node);
+        wheel.clear();
+        assertFalse(node.isScheduled());
+
+        List<TestNode> expired = new ArrayList<>();
+        wheel.advance(20, expired::add);
+        assertTrue(expired.isEmpty());
+    }
+
+    private static class TestNode extends TimingWheel.Node {
+        private long expirationTime;
+
+        TestNode(long expirationTime) {
+            this.expirationTime = expirationTime;
+        }
+
+        @Override
+        public long getExpirationTime() {
+            return this.expirationTime;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package it.fulminazzo.fulmicollection.structures.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TinyLfuPolicyTest {
+
+    @Test
+    void testSizeIsBounded() {
+        TinyLfuPolicy<Integer> policy = new TinyLfuPolicy<>(10);
+        int evicted = 0;
+        for (int i = 0; i < 100; i++) evicted += policy.recordWrite(i).size();
+        assertEquals(10, policy.size());
+        assertEquals(90, evicted);
+    }
+
+    @Test
+    void testPopularKeysSurviveScans() {
+        TinyLfuPolicy<Integer> policy = new TinyLfuPolicy<>(10);
+        for (int i = 0; i < 10; i++) policy.recordWrite(i);
+        for (int j = 0; j < 5; j++)
+            for (int i = 0; i < 10; i++) policy.recordAccess(i);
+        // The last key is still in the admission window, so it can be evicted
+        for (int i = 100; i < 130; i++) {
+            List<Integer> evicted = policy.recordWrite(i);
+            for (Integer key : evicted) assertTrue(key >= 9, "Popular key " + key + " should not be evicted");
+        }
+    }
+
+    @Test
+    void testRemove() {
+        TinyLfuPolicy<Integer> policy = new TinyLfuPolicy<>(2);
+        policy.recordWrite(1);
+        policy.recordWrite(2);
+        policy.remove(1);
+        assertTrue(policy.recordWrite(3).isEmpty(), "No key should be evicted after a removal");
+        policy.clear();
+        assertEquals(0, policy.size());
+    }
+
+    @Test
+    void testConditionalRemove() {
+        TinyLfuPolicy<Integer> policy = new TinyLfuPolicy<>(10);
+        policy.recordWrite(1);
+        policy.remove(1, k -> false);
+        assertEquals(1, policy.size(), "Key should be kept if the condition does not hold");
+        policy.remove(1, k -> true);
+        assertEquals(0, policy.size());
+    }
+
+    @Test
+    void testLargeMaximumDoesNotAllocateSketch() {
+        TinyLfuPolicy<Integer> policy = new TinyLfuPolicy<>(1L << 40);
+        for (int i = 0; i < 1000; i++) assertTrue(policy.recordWrite(i).isEmpty());
+        assertEquals(1000, policy.size());
+    }
+
+    @Test
+    void testNegativeSize() {
+        assertThrowsExactly(IllegalArgumentException.class, () -> new TinyLfuPolicy<>(-1));
+    }
+
+    @Test
+    void testWeightIsBounded() {
+        TinyLfuPolicy<Integer> policy = new TinyLfuPolicy<>(1000, true);
+        for (int i = 0; i < 1000; i++) {
+            policy.recordWrite(i, i % 10 * 10);
+            assertTrue(policy.weightedSize() <= 1000, "Total weight should never exceed the maximum");
+        }
+        assertTrue(policy.size() > 10, "Light keys should fill the remaining weight");
+    }
+
+    @Test
+    void testWeightIsUpdatedOnReplace() {
+        TinyLfuPolicy<Integer> policy = new TinyLfuPolicy<>(100, true);
+        policy.recordWrite(1, 10);
+        policy.recordWrite(2, 10);
+        assertEquals(20, policy.weightedSize());
+        policy.recordWrite(1, 50);
+        assertEquals(60, policy.weightedSize());
+        assertFalse(policy.recordWrite(2, 60).isEmpty(), "Heavier replacement should cause an eviction");
+        assertTrue(policy.weightedSize() <= 100);
+        policy.remove(1);
+        policy.remove(2);
+        assertEquals(0, policy.weightedSize());
+    }
+
+    @Test
+    void testOverweightKeyIsEvicted() {
+        TinyLfuPolicy<Integer> policy = new TinyLfuPolicy<>(100, true);
+        policy.recordWrite(1, 50);
+        assertEquals(Collections.singletonList(2), policy.recordWrite(2, 101));
+        assertEquals(50, policy.weightedSize());
+    }
+}